@@ -24,6 +24,8 @@ import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import application.Act.OpType;
+import oblivious.NodeSigner;
+import oblivious.NodeVerifier;
 import oblivious.ObliviousTree;
 import oblivious.concurrent.ConcurrentObliviousTree;
 import oblivious.sequential.SequentialObliviousTree;
@@ -110,7 +112,9 @@ public class TestApplication {
 		}
 	}
 	/** Generates a public-private key pair at random and
-	 *  returns a signature for signing and another for verifying
+	 *  returns a signature for signing and another for verifying.
+	 *  Uses 1024 bit SHA1withDSA, for another scheme (such as Ed25519 from
+	 *  NodeSchemes) use initSignature(NodeSigner, NodeVerifier).
 	 *  @return Signature[] indices: 0 = signing, 1 = verifying
 	 */
 	public static Signature[] initSignature(){
@@ -131,6 +135,22 @@ public class TestApplication {
 			return null;
 		}
 		return sig;
+	}
+	/** returns a signature for signing and another for verifying
+	 *  from the given node signature scheme
+	 *  @param signer signing side of scheme
+	 *  @param verifier verifying side of scheme
+	 *  @return Signature[] indices: 0 = signing, 1 = verifying
+	 */
+	public static Signature[] initSignature(NodeSigner signer, NodeVerifier verifier){
+		Signature[] sig = new Signature[2];
+		try {
+			sig[0] = signer.newSigner();
+			sig[1] = verifier.newVerifier();
+		} catch (Exception e){
+			return null;
+		}
+		return sig;
 	}	
 	
 	// main test driver method
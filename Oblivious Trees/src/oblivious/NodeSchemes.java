@@ -0,0 +1,182 @@
+package oblivious;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/** Oblivious Tree - COP 6616
+ *  Bundled node signature schemes, each with a fixed signature size:
+ *  ECDSA over P-256 with SHA-256 (64 bytes, r||s rather than DER so the size
+ *  does not vary), Ed25519 (64 bytes) and HMAC-SHA256 (32 bytes). HMAC uses
+ *  one secret key to sign and verify, so is only for a single trusted party.
+ * @author William Strickland and Chris Fontaine
+ */
+public final class NodeSchemes {
+
+	/* Class Properties */
+	public static final String ECDSA = "SHA256withECDSAinP1363Format";
+	public static final String ED25519 = "Ed25519";
+	public static final String HMAC_SHA256 = "HmacSHA256";
+	
+	private NodeSchemes(){
+	}
+	
+	// Key generation
+	/** @return new P-256 key pair for ECDSA, null if error
+	 */
+	public static KeyPair ecdsaKeyPair(){
+		try {
+			KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+			gen.initialize(new ECGenParameterSpec("secp256r1"));
+			return gen.generateKeyPair();
+		} catch (GeneralSecurityException e){
+			return null;
+		}
+	}
+	/** @return new Ed25519 key pair, null if error
+	 */
+	public static KeyPair ed25519KeyPair(){
+		try {
+			return KeyPairGenerator.getInstance(ED25519).generateKeyPair();
+		} catch (GeneralSecurityException e){
+			return null;
+		}
+	}
+	/** @return new 256-bit HMAC-SHA256 secret key, null if error
+	 */
+	public static SecretKey hmacKey(){
+		try {
+			KeyGenerator gen = KeyGenerator.getInstance(HMAC_SHA256);
+			gen.init(256);
+			return gen.generateKey();
+		} catch (GeneralSecurityException e){
+			return null;
+		}
+	}
+	
+	// Schemes
+	public static NodeSigner ecdsaSigner(PrivateKey key){
+		return new KeyedScheme(ECDSA, key, null, 64);
+	}
+	public static NodeVerifier ecdsaVerifier(PublicKey key){
+		return new KeyedScheme(ECDSA, null, key, 64);
+	}
+	public static NodeSigner ed25519Signer(PrivateKey key){
+		return new KeyedScheme(ED25519, key, null, 64);
+	}
+	public static NodeVerifier ed25519Verifier(PublicKey key){
+		return new KeyedScheme(ED25519, null, key, 64);
+	}
+	public static NodeSigner hmacSigner(SecretKey key){
+		return new HmacScheme(key);
+	}
+	public static NodeVerifier hmacVerifier(SecretKey key){
+		return new HmacScheme(key);
+	}
+	
+	/** scheme backed by a provider Signature algorithm and key pair
+	 */
+	private static class KeyedScheme implements NodeSigner, NodeVerifier {
+		private final String algorithm;		// signature algorithm name
+		private final PrivateKey signKey;	// key for signing, null if verifying
+		private final PublicKey verifyKey;	// key for verifying, null if signing
+		private final int size;				// signature size in bytes
+		
+		private KeyedScheme(String algorithm, PrivateKey signKey, PublicKey verifyKey, int size){
+			this.algorithm = algorithm;
+			this.signKey = signKey;
+			this.verifyKey = verifyKey;
+			this.size = size;
+		}
+		public Signature newSigner() throws GeneralSecurityException{
+			Signature tmp = Signature.getInstance(this.algorithm);
+			tmp.initSign(this.signKey);
+			return tmp;
+		}
+		public Signature newVerifier() throws GeneralSecurityException{
+			Signature tmp = Signature.getInstance(this.algorithm);
+			tmp.initVerify(this.verifyKey);
+			return tmp;
+		}
+		public int getSignatureSize(){
+			return this.size;
+		}
+		public String getAlgorithm(){
+			return this.algorithm;
+		}
+	}
+	
+	/** scheme backed by HMAC-SHA256, same secret key signs and verifies
+	 */
+	private static class HmacScheme implements NodeSigner, NodeVerifier {
+		private final SecretKey key;	// shared secret key
+		
+		private HmacScheme(SecretKey key){
+			this.key = key;
+		}
+		public Signature newSigner() throws GeneralSecurityException{
+			return new MacSignature(this.key, true);
+		}
+		public Signature newVerifier() throws GeneralSecurityException{
+			return new MacSignature(this.key, false);
+		}
+		public int getSignatureSize(){
+			return 32;
+		}
+		public String getAlgorithm(){
+			return HMAC_SHA256;
+		}
+	}
+	
+	/** Signature wrapping a Mac, so HMAC can be passed wherever the trees
+	 *  take a Signature. Created already initialized with its secret key,
+	 *  it cannot be re-initialized with a public or private key.
+	 */
+	private static class MacSignature extends Signature {
+		private final Mac mac;	// keyed mac doing the work
+		
+		private MacSignature(SecretKey key, boolean forSigning) throws GeneralSecurityException{
+			super(HMAC_SHA256);
+			this.mac = Mac.getInstance(HMAC_SHA256);
+			this.mac.init(key);
+			this.state = (forSigning) ? Signature.SIGN : Signature.VERIFY;
+		}
+		protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException{
+			throw new InvalidKeyException("HMAC requires a secret key");
+		}
+		protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException{
+			throw new InvalidKeyException("HMAC requires a secret key");
+		}
+		protected void engineUpdate(byte b){
+			this.mac.update(b);
+		}
+		protected void engineUpdate(byte[] b, int off, int len){
+			this.mac.update(b, off, len);
+		}
+		protected byte[] engineSign(){
+			return this.mac.doFinal();
+		}
+		protected boolean engineVerify(byte[] sigBytes){
+			return MessageDigest.isEqual(this.mac.doFinal(), sigBytes);
+		}
+		@Deprecated
+		protected void engineSetParameter(String param, Object value){
+			throw new InvalidParameterException();
+		}
+		@Deprecated
+		protected Object engineGetParameter(String param){
+			throw new InvalidParameterException();
+		}
+	}
+}
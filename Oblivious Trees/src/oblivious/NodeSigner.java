@@ -0,0 +1,26 @@
+package oblivious;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+
+/** Oblivious Tree - COP 6616
+ *  Signing side of a node signature scheme (algorithm and key). The trees
+ *  sign with a plain Signature, a NodeSigner hands out new ones initialized
+ *  for signing so callers can change scheme without changing call sites.
+ *  See NodeSchemes for the bundled schemes.
+ * @author William Strickland and Chris Fontaine
+ */
+public interface NodeSigner {
+	/** create a new Signature initialized for signing. Signature objects
+	 *  are stateful, so each thread signing needs its own.
+	 *  @return new initialized Signature
+	 *  @throws GeneralSecurityException if algorithm unavailable or key rejected
+	 */
+	Signature newSigner() throws GeneralSecurityException;
+	/** @return size in bytes of every signature made, for presizing buffers
+	 */
+	int getSignatureSize();
+	/** @return name of signature algorithm
+	 */
+	String getAlgorithm();
+}
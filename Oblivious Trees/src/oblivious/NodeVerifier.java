@@ -0,0 +1,25 @@
+package oblivious;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+
+/** Oblivious Tree - COP 6616
+ *  Verifying side of a node signature scheme (algorithm and key). Hands out
+ *  new Signature objects initialized for verifying tree nodes and signature
+ *  output. See NodeSchemes for the bundled schemes.
+ * @author William Strickland and Chris Fontaine
+ */
+public interface NodeVerifier {
+	/** create a new Signature initialized for verifying. Signature objects
+	 *  are stateful, so each thread verifying needs its own.
+	 *  @return new initialized Signature
+	 *  @throws GeneralSecurityException if algorithm unavailable or key rejected
+	 */
+	Signature newVerifier() throws GeneralSecurityException;
+	/** @return size in bytes of every signature checked, for presizing buffers
+	 */
+	int getSignatureSize();
+	/** @return name of signature algorithm
+	 */
+	String getAlgorithm();
+}
@@ -1,12 +1,30 @@
 package oblivious;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Signature;
+import java.security.SignatureException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Random;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /** Oblivious Tree - COP 6616
@@ -17,6 +35,27 @@ public abstract class ObliviousTree {
 
 	// File chunk size in bytes
 	public static final int CHUNK_SIZE = 100;
+	// Number of chunks signed by a single fork-join task
+	private static final int LEAF_SPAN = 256;
+	// Number of nodes verified by a single fork-join task
+	private static final int VERIFY_SPAN = 64;
+	// Largest region of a file mapped at once, a whole number of chunks
+	protected static final long MAP_WINDOW = (Integer.MAX_VALUE/CHUNK_SIZE)*(long)CHUNK_SIZE;
+	// Largest signature size accepted when reading signature output
+	private static final int MAX_SIG = 64*1024;
+	// Most children of a node of a valid tree, larger degrees are rejected by every verifier
+	protected static final int MAX_DEGREE = 3;
+	// Size in bytes of buffer signature output is streamed through
+	private static final int OUT_BUFFER = 64*1024;
+	// Direct buffer for streaming signature output, reused by each thread
+	private static final ThreadLocal<ByteBuffer> outBuf = 
+			new ThreadLocal <ByteBuffer> () {
+				@Override protected ByteBuffer initialValue() {
+					return ByteBuffer.allocateDirect(OUT_BUFFER);
+				}
+			};
+	// Array children's signatures are gathered in to be signed, reused by each thread
+	private static final ThreadLocal<byte[]> sigScratch = new ThreadLocal<byte[]>();
 	
 	// Instance Methods
 	/** Inserts a new leaf into the ith position of the leaf level, then
@@ -37,11 +76,66 @@ public abstract class ObliviousTree {
      *  @return void
      */
 	abstract public void delete(int i, Signature signer);
+	/** inserts a run of chunks as consecutive leaves starting at the ith
+	 *  position of the leaf level, re-randomizing the affected span of the
+	 *  tree in a single pass so each ancestor touched is signed only once.
+	 *  @param i index of leaf the first chunk is inserted at
+	 *  @param chunks byte[] data values to be inserted, in order
+	 *  @param signer signature for signing new/randomized tree nodes.
+	 *  @throws SignatureException if a chunk cannot be signed, tree is left unchanged
+	 */
+	abstract public void insertAll(int i, List<byte[]> chunks, Signature signer) throws SignatureException;
+	/** deletes the leaves from position from (inclusive) to position to
+	 *  (exclusive) of the leaf level, re-randomizing the affected span of the
+	 *  tree in a single pass so each ancestor touched is signed only once.
+	 *  @param from index of first leaf to delete
+	 *  @param to index after last leaf to delete
+	 *  @param signer signature for signing new/randomized tree nodes.
+	 */
+	abstract public void deleteRange(int from, int to, Signature signer);
 	/** generate the signature output of algorithm
 	 * outputs each node in signature as {sig_size}{sig}{degree} in depth-first preorder
 	 *  @return byte[] of current complete signature, null if failure
 	 */
 	abstract public byte[] signatureGenerate();
+	/** write the signature output of algorithm to a channel, same output as
+	 *  signatureGenerate() but streamed through a fixed size buffer rather
+	 *  than built up in memory. Channel is left open.
+	 *  @param out channel to write signature output to
+	 *  @return true if written, false if no signature could be generated
+	 *  @throws IOException if writing to channel fails
+	 */
+	abstract public boolean signatureGenerate(WritableByteChannel out) throws IOException;
+	/** generate the signature output of algorithm in parallel, same output
+	 *  as signatureGenerate(). Sibling subtrees are written at the same time
+	 *  into their own regions of one output array.
+	 *  @param pool fork-join pool to write subtrees on
+	 *  @return byte[] of current complete signature, null if failure
+	 */
+	abstract public byte[] signatureGenerate(ForkJoinPool pool);
+	/** write the signature output of algorithm to a stream, same output as
+	 *  signatureGenerate(). Stream is flushed but left open.
+	 *  @param out stream to write signature output to
+	 *  @return true if written, false if no signature could be generated
+	 *  @throws IOException if writing to stream fails
+	 */
+	public boolean signatureGenerate(OutputStream out) throws IOException{
+		boolean ok = signatureGenerate(Channels.newChannel(out));
+		out.flush();
+		return ok;
+	}
+	/** generate a patch from the signature output of the tree as of an
+	 *  earlier version to its current output. Every node signed since that
+	 *  version is sent as {sig_size}{sig}{degree}; every other subtree is
+	 *  only referenced as {-sig_size}{sig} by the signature of its root, so
+	 *  a patch is O(changes x height) rather than O(n). Output is
+	 *  {version}{head_size}{head}{records} in depth-first preorder, where
+	 *  version is passed back in for the next patch and head is the merkle
+	 *  mode root header (empty if not merkle mode). Apply with signaturePatch.
+	 *  @param since version of output held by client, -1 for all nodes
+	 *  @return byte[] of patch, null if failure
+	 */
+	abstract public byte[] signatureDiff(long since);
 	/** get number of chunks in OTree
 	 * @return int count of leafnodes/chunks in oblivious tree
 	 */
@@ -51,6 +145,54 @@ public abstract class ObliviousTree {
 	 *  @return true if valid, false if invalid
 	 */
 	abstract public boolean verifyTree(Signature verifier);
+	/** audit every node of the tree in parallel, sibling subtrees are checked
+	 *  at the same time, each worker with its own Signature. Stops at the
+	 *  first bad node found.
+	 *  @param verifiers factory for verifying Signatures, one is used per worker
+	 *  @param pool fork-join pool to check subtrees on
+	 *  @return path of child positions from root to a bad node (empty if root
+	 *  is bad), null if valid
+	 */
+	abstract public int[] auditTree(SignatureFactory verifiers, ForkJoinPool pool);
+	/** check only the nodes changed since the last call, rather than the
+	 *  whole tree, so every write can be checked at O(height) cost.
+	 *  @param verifier signature to be used to check
+	 *  @return true if valid, false if invalid
+	 */
+	abstract public boolean verifyWrites(Signature verifier);
+	/** @return signature at the top of the tree, that signature output and
+	 *  chunk proofs are checked against (root digest signature if merkle),
+	 *  null if none
+	 */
+	abstract public byte[] getRootSig();
+	/** extract proof that the ith chunk is a leaf of the tree: for each node
+	 *  on the path from the leaf up to the root, the signatures of all of its
+	 *  children and which of them is on the path. Output is {merkle}{levels}
+	 *  then for each level from the leaf up {degree}{pos}{sig_size}{sig}...
+	 *  Check with chunkProofVerify against getRootSig. The proof shows the
+	 *  chunk is a leaf of the tree, not that it is the ith one (see
+	 *  rangeProof).
+	 *  @param i index of chunk/leaf
+	 *  @return byte[] of proof, null if no such leaf
+	 */
+	abstract public byte[] chunkProof(int i);
+	/** extract proof that chunks [from, to) are a contiguous run of leaves of
+	 *  the tree: the tree in preorder like signatureGenerate, but only nodes
+	 *  overlapping the range are expanded. Every other node is given by its
+	 *  signature alone with degree -1, so the proof holds the two boundary
+	 *  paths, the subtrees covering the range and the siblings hanging off
+	 *  them. Output is {merkle} then {sig_size}{sig}{degree} per node.
+	 *  Check with rangeProofVerify against getRootSig. The proof shows the
+	 *  chunks are consecutive leaves of the tree but not where they lie:
+	 *  nodes sign only their children's signatures, not their leaf counts,
+	 *  so a proof for [5,10) is just as good for [20,25). Where position
+	 *  matters it must come from elsewhere, or the whole file be checked
+	 *  with signatureVerify.
+	 *  @param from index of first chunk in range
+	 *  @param to index past last chunk in range
+	 *  @return byte[] of proof, null if range empty or out of bounds
+	 */
+	abstract public byte[] rangeProof(int from, int to);
 
 	// Class Methods
 	/** verify if a signature is correct given the file and public key
@@ -76,59 +218,756 @@ public abstract class ObliviousTree {
 		}
 		return true;
 	} //*/
+	/** verify a single chunk against a proof from chunkProof and the root
+	 *  signature, without the rest of the tree. The leaf signature is checked
+	 *  against the chunk, each node on the path against its children, and
+	 *  the root signature against the children of the root. Does not check
+	 *  the index of the chunk, see rangeProof.
+	 *  @param chunk chunk to be verified
+	 *  @param proof proof from chunkProof
+	 *  @param rootSig trusted root signature, see getRootSig
+	 *  @param verifier Signature to verify chunk and path with, see rangeProofVerify
+	 *  on reuse after a false result
+	 *  @return true if valid, false if invalid
+	 */
+	public static boolean chunkProofVerify(byte[] chunk, byte[] proof, byte[] rootSig, Signature verifier){
+		try {
+			ByteBuffer p = ByteBuffer.wrap(proof);
+			boolean merkle = p.getInt() == 1;
+			int levels = p.getInt();
+			if (levels < 0 || levels > 64){
+				return false;
+			}
+			// read children and path position at each level, from leaf up
+			byte[][][] kids = new byte[levels][][];
+			int[] pos = new int[levels];
+			for (int l=0; l<levels; l++){
+				int degree = p.getInt();
+				pos[l] = p.getInt();
+				if (degree < 1 || degree > MAX_DEGREE || pos[l] < 0 || pos[l] >= degree){
+					return false;
+				}
+				kids[l] = new byte[degree][];
+				for (int j=0; j<degree; j++){
+					int sig_size = p.getInt();
+					if (sig_size <= 0 || sig_size > MAX_SIG){
+						return false;
+					}
+					kids[l][j] = new byte[sig_size];
+					p.get(kids[l][j]);
+				}
+			}
+			if (p.hasRemaining()){
+				return false;
+			}
+			// leaf signed over chunk
+			verifier.update(chunk);
+			if (!verifier.verify((levels == 0) ? rootSig : kids[0][pos[0]])){
+				return false;
+			}
+			MessageDigest digest = (merkle) ? MessageDigest.getInstance("SHA-256") : null;
+			for (int l=0; l<levels; l++){
+				// parent of this level, the root above the last level
+				boolean top = (l == levels-1);
+				if (merkle){
+					for (byte[] c : kids[l]){
+						digest.update(c);
+					}
+					byte[] d = digest.digest();
+					if (top){
+						verifier.update(d);
+						if (!verifier.verify(rootSig)){
+							return false;
+						}
+					} else if (!MessageDigest.isEqual(d, kids[l+1][pos[l+1]])){
+						return false;
+					}
+				} else {
+					for (byte[] c : kids[l]){
+						verifier.update(c);
+					}
+					if (!verifier.verify((top) ? rootSig : kids[l+1][pos[l+1]])){
+						return false;
+					}
+				}
+			}
+			return true;
+		} catch (GeneralSecurityException e){
+			return false;
+		} catch (RuntimeException e){
+			// malformed proof
+			return false;
+		}
+	}
+	/** verify a contiguous run of chunks against a proof from rangeProof and
+	 *  the root signature. Each chunk is checked against its leaf signature
+	 *  and each expanded node against its children, so the cost grows with
+	 *  the length of the range plus the height of the tree. Only checks that
+	 *  the chunks are consecutive leaves, not which range they are, since
+	 *  position is not signed (see rangeProof).
+	 *  @param chunks chunks of range in order
+	 *  @param proof proof from rangeProof
+	 *  @param rootSig trusted root signature, see getRootSig
+	 *  @param verifier Signature to verify chunks and nodes with, some providers
+	 *  keep buffered data after rejecting a malformed signature so do not reuse
+	 *  it after a false result
+	 *  @return true if valid, false if invalid
+	 */
+	public static boolean rangeProofVerify(byte[][] chunks, byte[] proof, byte[] rootSig, Signature verifier){
+		if (chunks.length == 0 || rootSig == null){
+			return false;
+		}
+		try {
+			ByteBuffer p = ByteBuffer.wrap(proof);
+			boolean merkle = p.getInt() == 1;
+			MessageDigest digest = (merkle) ? MessageDigest.getInstance("SHA-256") : null;
+			// {next chunk, phase: 0 before range, 1 in range, 2 past range}
+			int[] state = new int[2];
+			int start = p.position();
+			byte[] top = rangeVerifyRecurse(p, chunks, state, verifier, digest, 0);
+			if (top == null || p.hasRemaining() || state[0] != chunks.length){
+				return false;
+			}
+			// root expanded with children is a digest if merkle, else matched as is
+			if (merkle && p.getInt(start + 4 + top.length) > 0){
+				verifier.update(top);
+				return verifier.verify(rootSig);
+			}
+			return MessageDigest.isEqual(top, rootSig);
+		} catch (GeneralSecurityException e){
+			return false;
+		} catch (RuntimeException e){
+			// malformed proof
+			return false;
+		}
+	}
+	/** helper for rangeProofVerify, verify node and its expanded descendants
+	 *  @param p buffer positioned at node
+	 *  @param chunks chunks of range in order
+	 *  @param state next chunk and phase of range, updated as leaves are passed
+	 *  @param verifier Signature to verify with
+	 *  @param digest digest of internal nodes, null if not merkle
+	 *  @param depth depth of node, bounds recursion on malformed proofs
+	 *  @return signature (or digest) of node, null if invalid
+	 */
+	private static byte[] rangeVerifyRecurse(ByteBuffer p, byte[][] chunks, int[] state, Signature verifier, MessageDigest digest, int depth) throws GeneralSecurityException{
+		int sig_size = p.getInt();
+		if (sig_size <= 0 || sig_size > MAX_SIG || depth > 64){
+			return null;
+		}
+		byte[] sig = new byte[sig_size];
+		p.get(sig);
+		int degree = p.getInt();
+		if (degree < -1 || degree > MAX_DEGREE){
+			return null;
+		}
+		if (degree == -1){
+			// outside range, a gap after the range has started ends it
+			if (state[1] == 1){
+				state[1] = 2;
+			}
+			return sig;
+		}
+		if (degree == 0){
+			// leaf in range, must follow on from the last one
+			if (state[1] == 2 || state[0] >= chunks.length){
+				return null;
+			}
+			state[1] = 1;
+			verifier.update(chunks[state[0]++]);
+			return (verifier.verify(sig)) ? sig : null;
+		}
+		byte[][] kids = new byte[degree][];
+		for (int j=0; j<degree; j++){
+			kids[j] = rangeVerifyRecurse(p, chunks, state, verifier, digest, depth+1);
+			if (kids[j] == null){
+				return null;
+			}
+		}
+		if (digest != null){
+			for (byte[] c : kids){
+				digest.update(c);
+			}
+			return (MessageDigest.isEqual(digest.digest(), sig)) ? sig : null;
+		}
+		for (byte[] c : kids){
+			verifier.update(c);
+		}
+		return (verifier.verify(sig)) ? sig : null;
+	}
+	/** per-thread array for gathering signatures of children to be signed
+	 *  together, so re-signing a node does not allocate. Contents are not
+	 *  kept between calls.
+	 *  @param size bytes needed
+	 *  @return array of at least size bytes
+	 */
+	protected static byte[] sigScratch(int size){
+		byte[] b = sigScratch.get();
+		if (b == null || b.length < size){
+			b = new byte[Math.max(size, 512)];
+			sigScratch.set(b);
+		}
+		return b;
+	}
+	/** helper for chunkProof, append one level of a proof.
+	 *  @param out ByteOutArray holding proof
+	 *  @param kids signatures of children of path node, in order
+	 *  @param pos position of path child among them
+	 */
+	protected static void appendProofLevel(ObliviousTree.ByteOutArray out, byte[][] kids, int pos){
+		out.appendInt(kids.length);
+		out.appendInt(pos);
+		for (byte[] c : kids){
+			out.appendInt(c.length);
+			out.append(c);
+		}
+	}
+	/** verify output of a tree in merkle mode, where internal nodes hold a
+	 *  SHA-256 digest of their children and only leaves and the root digest
+	 *  are signed. Output is {sig_size}{sig} of the root digest followed by
+	 *  the tree as {sig_size}{sig}{degree} in depth-first preorder.
+	 *  @param file original file
+	 *  @param sig merkle mode signature of file
+	 *  @param verifier signature initialized for verifying
+	 *  @return true if valid, false if invalid
+	 */
+	public static boolean signatureVerifyMerkle(byte[] file, byte[] sig, Signature verifier){
+		// construct SignatureArrays from file and signature input
+		ObliviousTree.ByteOutArray fileArray = new ObliviousTree.ByteOutArray(0, 5);
+		ObliviousTree.ByteOutArray sigArray = new ObliviousTree.ByteOutArray();
+		fileArray.data = file;
+		sigArray.data = sig;
+		try{
+			// read root signature
+			int size = ByteBuffer.wrap(sig, 0, 4).getInt();
+			byte[] rootSig = Arrays.copyOfRange(sig, 4, 4+size);
+			sigArray.index = 4+size;
+			// verify tree, then root signature against root digest
+			byte[] rootDigest = merkleVerifyRecurse(fileArray, sigArray, verifier, MessageDigest.getInstance("SHA-256"));
+			verifier.update(rootDigest);
+			return verifier.verify(rootSig);
+		} catch (GeneralSecurityException e){
+			return false;
+		} catch (RuntimeException e){
+			// malformed signature
+			return false;
+		}
+	}
+	/** recursive function to reconstruct and verify merkle mode tree and file
+	 *  @return byte[] signature or digest of node for parent calculation
+	 *  @throws GeneralSecurityException when verification fails
+	 */
+	private static byte[] merkleVerifyRecurse(ByteOutArray file, ByteOutArray sig, Signature verifier, MessageDigest digest) throws GeneralSecurityException{
+		ByteBuffer buf = ByteBuffer.wrap(sig.data);
+		// read signature size, signature and degree
+		int sig_size = buf.getInt(sig.index);
+		sig.index+=4;
+		byte[] tmp = Arrays.copyOfRange(sig.data, sig.index, sig.index+sig_size);
+		sig.index+=sig_size;
+		int degree = buf.getInt(sig.index);
+		sig.index+=4;
+		if (degree < 0 || degree > MAX_DEGREE){
+			throw new GeneralSecurityException();
+		}
+		
+		if (degree>0){
+			// gather children from left to right, then digest and compare
+			byte[][] children = new byte[degree][];
+			for (int j=0; j<degree; j++){
+				children[j] = merkleVerifyRecurse(file, sig, verifier, digest);
+			}
+			for (byte[] c : children){
+				digest.update(c);
+			}
+			if (!MessageDigest.isEqual(digest.digest(), tmp)){
+				throw new GeneralSecurityException();
+			}
+		} else {
+			// leaf signed over chunk, the smaller of default chunk size and remaining file portion
+			int chunk_size = (file.data.length-file.index > ObliviousTree.CHUNK_SIZE) ? ObliviousTree.CHUNK_SIZE : file.data.length-file.index;
+			verifier.update(file.data, file.index, chunk_size);
+			file.index+=chunk_size;
+			if (!verifier.verify(tmp)){
+				throw new GeneralSecurityException();
+			}
+		}
+		return tmp;
+	}
 	/** recursive function to reconstruct and verify tree and file using verifying signature
 	 *  @return byte[] signature data for parent calculation
 	 *  @throws GeneralSecurityException when signature verification fails (I know this is terrible...)
 	 */
 	private static byte[] signatureVerifyRecurse(ByteOutArray file, ObliviousTree.ByteOutArray sig, Signature verifier) throws GeneralSecurityException{
-		int sig_size, degree; // signature size and node degree to be read from input
-		ByteBuffer buf = ByteBuffer.allocate(4);	// bytebuffer for doing int to byte[] conversions
-		byte[] tmp;		// temporary array for holding byte sig of each node
-		byte[] data;	// temporary array for storing data to be verified
-		
-		// read signature size from file
-		buf.put(sig.data, sig.index, 4);
-		sig_size = buf.getInt(0);
-		buf.clear();
+		ByteBuffer buf = ByteBuffer.wrap(sig.data);
+		// read signature size, signature and degree
+		int sig_size = buf.getInt(sig.index);
 		sig.index+=4;
-		// read signature
-		tmp = Arrays.copyOfRange(sig.data, sig.index, sig.index+sig_size);
+		byte[] tmp = Arrays.copyOfRange(sig.data, sig.index, sig.index+sig_size);
 		sig.index+=sig_size;
-		// read degree
-		buf.put(sig.data, sig.index, 4);
-		degree = buf.getInt(0);
-		//buf.clear();
+		int degree = buf.getInt(sig.index);
 		sig.index+=4;
+		if (degree < 0 || degree > MAX_DEGREE){
+			throw new GeneralSecurityException();
+		}
 		
 		// if has children verify against children
 		if (degree>0){
-			data = null;
-			// gather children signatures
+			// gather children signatures, then feed each to verifier in order
+			byte[][] children = new byte[degree][];
 			for (int j=0; j<degree; j++){
-				// concatenate child segments together
-				data = concatArrays(data, signatureVerifyRecurse(file, sig, verifier));
+				children[j] = signatureVerifyRecurse(file, sig, verifier);
+			}
+			for (byte[] c : children){
+				verifier.update(c);
 			}
 		}
 		// verify against file
 		else {
 			// use the smaller of default chunk size and remaining file portion
 			int chunk_size = (file.data.length-file.index > ObliviousTree.CHUNK_SIZE) ? ObliviousTree.CHUNK_SIZE : file.data.length-file.index;
-			data = Arrays.copyOfRange(file.data, file.index, file.index+chunk_size);
+			verifier.update(file.data, file.index, chunk_size);
 			file.index+=chunk_size;
 		}
 		
 		// validate signature
-		verifier.update(data);
 		if (!verifier.verify(tmp)){
 			throw new GeneralSecurityException();
 		}
-		// return current data value to parent node to concatenate
+		// return current data value to parent node
+		return tmp;
+	}
+	/** verify signature output read from a stream against a file read from a
+	 *  stream, without holding either in memory. Only the signatures of the
+	 *  children of the nodes on the current path are held, so memory is
+	 *  bounded by tree height. Both streams must be fully consumed by the
+	 *  tree, trailing data is invalid. Streams are buffered but not closed.
+	 *  @param file document to be verified
+	 *  @param sig signature output to be used
+	 *  @param verifier Signature to verify tree and file with
+	 *  @return true if valid, false if invalid
+	 *  @throws IOException if reading either stream fails
+	 */
+	public static boolean signatureVerify(InputStream file, InputStream sig, Signature verifier) throws IOException{
+		DataInputStream sigIn = new DataInputStream(new BufferedInputStream(sig));
+		BufferedInputStream fileIn = new BufferedInputStream(file);
+		byte[] chunk = new byte[ObliviousTree.CHUNK_SIZE];
+		try {
+			streamVerifyRecurse(fileIn, sigIn, chunk, verifier);
+		} catch (GeneralSecurityException e){
+			return false;
+		} catch (EOFException e){
+			// signature output ended early
+			return false;
+		}
+		return sigIn.read() < 0 && fileIn.read() < 0;
+	}
+	/** verify signature output read from a channel against a file read from
+	 *  a channel, see signatureVerify(InputStream, InputStream, Signature).
+	 *  @param file document to be verified
+	 *  @param sig signature output to be used
+	 *  @param verifier Signature to verify tree and file with
+	 *  @return true if valid, false if invalid
+	 *  @throws IOException if reading either channel fails
+	 */
+	public static boolean signatureVerify(ReadableByteChannel file, ReadableByteChannel sig, Signature verifier) throws IOException{
+		return signatureVerify(Channels.newInputStream(file), Channels.newInputStream(sig), verifier);
+	}
+	/** verify if a signature is correct given the file, in parallel. One
+	 *  sequential pass indexes where each node's record and subtree lie in
+	 *  the signature output, then every node is verified independently on the
+	 *  pool, each worker with its own Signature. Stops at first bad node.
+	 *  @param file document to be verified
+	 *  @param sig signature tree to be used
+	 *  @param verifiers factory for verifying Signatures, one is used per worker
+	 *  @param pool fork-join pool to verify nodes on
+	 *  @return true if valid, false if invalid
+	 */
+	public static boolean signatureVerify(byte[] file, byte[] sig, SignatureFactory verifiers, ForkJoinPool pool){
+		SigIndex index = SigIndex.build(sig);
+		// leaves must cover file, last may be partial
+		if (index == null || index.leaves != Math.max(1, (file.length+CHUNK_SIZE-1)/CHUNK_SIZE)){
+			return false;
+		}
+		AtomicBoolean failed = new AtomicBoolean(false);
+		pool.invoke(new NodeVerifyTask(file, sig, index, 0, index.count, new SignaturePool(verifiers), failed));
+		return !failed.get();
+	}
+	/** index of signature output, for each node in preorder the offset of its
+	 *  signature, the node after its subtree and its leaf number (-1 if not leaf)
+	 */
+	private static class SigIndex {
+		private int[] sigOff;	// offset of signature of each node
+		private int[] end;		// preorder number of node after subtree of each node
+		private int[] leaf;		// leaf number of each node, -1 if internal
+		private int count;		// number of nodes
+		private int leaves;		// number of leaves
+		
+		private SigIndex(){
+			sigOff = new int[1024];
+			end = new int[1024];
+			leaf = new int[1024];
+			count = 0;
+			leaves = 0;
+		}
+		/** index signature output in one pass, keeping open nodes on a stack
+		 *  @param sig signature output
+		 *  @return index of output, null if malformed
+		 */
+		static SigIndex build(byte[] sig){
+			SigIndex x = new SigIndex();
+			ByteBuffer buf = ByteBuffer.wrap(sig);
+			int[] open = new int[64];	// nodes with children still to come
+			int[] left = new int[64];	// children still to come of each open node
+			int depth = 0;
+			try {
+				while (true){
+					int sig_size = buf.getInt();
+					if (sig_size <= 0 || sig_size > MAX_SIG){
+						return null;
+					}
+					int off = buf.position();
+					buf.position(off+sig_size);
+					int degree = buf.getInt();
+					if (degree < 0 || degree > MAX_DEGREE){
+						return null;
+					}
+					int i = x.add(off, (degree == 0) ? x.leaves++ : -1);
+					if (degree > 0){
+						if (depth == open.length){
+							return null;
+						}
+						open[depth] = i;
+						left[depth++] = degree;
+						continue;
+					}
+					// leaf closes, and with it every open node it was the last child of
+					x.end[i] = x.count;
+					while (depth > 0 && --left[depth-1] == 0){
+						x.end[open[--depth]] = x.count;
+					}
+					if (depth == 0){
+						// root closed, nothing may follow
+						return (buf.hasRemaining()) ? null : x;
+					}
+				}
+			} catch (RuntimeException e){
+				// output ended early or sizes run past end
+				return null;
+			}
+		}
+		private int add(int off, int leafNo){
+			if (this.count == this.sigOff.length){
+				int size = this.count*2;
+				this.sigOff = Arrays.copyOf(this.sigOff, size);
+				this.end = Arrays.copyOf(this.end, size);
+				this.leaf = Arrays.copyOf(this.leaf, size);
+			}
+			this.sigOff[this.count] = off;
+			this.leaf[this.count] = leafNo;
+			return this.count++;
+		}
+	}
+	/** Fork-join task verifying a range of nodes of an indexed signature output.
+	 *  Ranges larger than VERIFY_SPAN are split in half, each remaining range
+	 *  verifies with its worker's own Signature and stops once any node fails.
+	 */
+	private static class NodeVerifyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final byte[] file;		// file being verified
+		private final byte[] sig;		// signature output being verified
+		private final SigIndex index;	// index of signature output
+		private final int from;		// first node of range (inclusive)
+		private final int to;		// last node of range (exclusive)
+		private final SignaturePool verifiers;	// per worker Signatures
+		private final AtomicBoolean failed;	// set once any node fails
+		
+		public NodeVerifyTask(byte[] file, byte[] sig, SigIndex index, int from, int to, SignaturePool verifiers, AtomicBoolean failed){
+			this.file = file;
+			this.sig = sig;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.verifiers = verifiers;
+			this.failed = failed;
+		}
+		protected void compute(){
+			// if range too large, split in half and verify both halves
+			if (to-from > VERIFY_SPAN){
+				int mid = (from+to) >>> 1;
+				invokeAll(new NodeVerifyTask(file, sig, index, from, mid, verifiers, failed), new NodeVerifyTask(file, sig, index, mid, to, verifiers, failed));
+				return;
+			}
+			Signature verifier = verifiers.get();
+			if (verifier == null){
+				failed.set(true);
+				return;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(sig);	// for reading signature sizes
+			try {
+				for (int i=from; i<to && !failed.get(); i++){
+					if (index.leaf[i] >= 0){
+						// use the smaller of default chunk size and remaining file portion
+						int c = index.leaf[i]*CHUNK_SIZE;
+						verifier.update(file, c, Math.min(CHUNK_SIZE, file.length-c));
+					} else {
+						// children follow in preorder, each after subtree of the last
+						for (int c=i+1; c<index.end[i]; c=index.end[c]){
+							verifier.update(sig, index.sigOff[c], buf.getInt(index.sigOff[c]-4));
+						}
+					}
+					if (!verifier.verify(sig, index.sigOff[i], buf.getInt(index.sigOff[i]-4))){
+						failed.set(true);
+					}
+				}
+			} catch (GeneralSecurityException e){
+				failed.set(true);
+			} catch (RuntimeException e){
+				// malformed signature rejected by verifier
+				failed.set(true);
+			}
+		}
+	}
+	/** recursive function to verify streamed tree and file using verifying signature
+	 *  @param chunk reusable buffer for leaf chunks
+	 *  @return byte[] signature of node for parent calculation
+	 *  @throws GeneralSecurityException when signature verification fails or output malformed
+	 *  @throws IOException if reading either stream fails
+	 */
+	private static byte[] streamVerifyRecurse(InputStream file, DataInputStream sig, byte[] chunk, Signature verifier) throws GeneralSecurityException, IOException{
+		// read signature size, signature and degree
+		int sig_size = sig.readInt();
+		if (sig_size <= 0 || sig_size > MAX_SIG){
+			throw new GeneralSecurityException();
+		}
+		byte[] tmp = new byte[sig_size];
+		sig.readFully(tmp);
+		int degree = sig.readInt();
+		if (degree < 0 || degree > MAX_DEGREE){
+			throw new GeneralSecurityException();
+		}
+		
+		if (degree>0){
+			// gather children signatures, then feed each to verifier in order
+			byte[][] children = new byte[degree][];
+			for (int j=0; j<degree; j++){
+				children[j] = streamVerifyRecurse(file, sig, chunk, verifier);
+			}
+			for (byte[] c : children){
+				verifier.update(c);
+			}
+		} else {
+			// leaf signed over chunk, the smaller of default chunk size and remaining file portion
+			int chunk_size = readChunk(file, chunk);
+			verifier.update(chunk, 0, chunk_size);
+		}
+		if (!verifier.verify(tmp)){
+			throw new GeneralSecurityException();
+		}
 		return tmp;
 	}
 	
 	
 	// General Helping Classes/Methods
 	
+	/** apply patch from signatureDiff to the signature output it was made
+	 *  against, giving the current signature output. Referenced subtrees are
+	 *  found in the old output by the signature of their root. Both inputs
+	 *  may come from elsewhere, so every length and degree read is checked
+	 *  against the bytes left and MAX_DEGREE before it is used.
+	 *  @param old signature output of version patch was made since, null if none
+	 *  @param patch patch from signatureDiff
+	 *  @return byte[] of current signature output, null if patch is malformed or
+	 *  references a subtree not in old (ask for a patch since -1)
+	 */
+	public static byte[] signaturePatch(byte[] old, byte[] patch){
+		try {
+			ByteBuffer p = ByteBuffer.wrap(patch);
+			p.getLong();
+			int headLen = p.getInt();
+			if (headLen < 0 || headLen > p.remaining()){
+				return null;
+			}
+			// index subtrees of old output by signature of their root
+			Map<ByteBuffer, int[]> subtrees = new HashMap<ByteBuffer, int[]>();
+			if (old != null && old.length > 0){
+				ByteBuffer o = ByteBuffer.wrap(old);
+				if (headLen > 0){
+					// skip merkle root header
+					int rootLen = o.getInt(0);
+					if (rootLen < 0 || rootLen > old.length-4){
+						return null;
+					}
+					o.position(4 + rootLen);
+				}
+				while (o.hasRemaining()){
+					if (!patchIndexRecurse(o, subtrees, 0)){
+						return null;
+					}
+				}
+			}
+			ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, Math.max((old == null) ? 0 : old.length, 128));
+			// copy merkle root header
+			out.append(Arrays.copyOfRange(patch, p.position(), p.position()+headLen));
+			p.position(p.position()+headLen);
+			// records in preorder, a reference expands to the whole old subtree
+			while (p.hasRemaining()){
+				int n = p.getInt();
+				if (n == Integer.MIN_VALUE || Math.abs(n) > p.remaining() - ((n > 0) ? 4 : 0)){
+					// length runs past end of patch
+					return null;
+				}
+				if (n > 0){
+					out.append(Arrays.copyOfRange(patch, p.position()-4, p.position()+n+4));
+					p.position(p.position()+n+4);
+				} else {
+					ByteBuffer key = ByteBuffer.wrap(patch, p.position(), -n);
+					int[] range = subtrees.get(key);
+					if (range == null){
+						return null;
+					}
+					out.append(Arrays.copyOfRange(old, range[0], range[1]));
+					p.position(p.position()-n);
+				}
+			}
+			return Arrays.copyOf(out.data, out.index);
+		} catch (RuntimeException e){
+			// return null due to malformed patch or old output
+			return null;
+		}
+	}
+	/** @param patch patch from signatureDiff
+	 *  @return version of tree patch brings output up to, pass to next signatureDiff
+	 */
+	public static long patchVersion(byte[] patch){
+		return ByteBuffer.wrap(patch).getLong(0);
+	}
+	/** recursive function to index each subtree of signature output by the
+	 *  signature of its root
+	 *  @param o signature output, positioned at start of subtree
+	 *  @param subtrees map of root signature to {start, end} of subtree
+	 *  @param depth depth of node, bounds recursion on malformed output
+	 *  @return true if subtree indexed, false if malformed
+	 */
+	private static boolean patchIndexRecurse(ByteBuffer o, Map<ByteBuffer, int[]> subtrees, int depth){
+		int start = o.position();
+		int n = o.getInt();
+		if (n <= 0 || n > MAX_SIG || n > o.remaining()-4 || depth > 64){
+			return false;
+		}
+		ByteBuffer key = ByteBuffer.wrap(o.array(), o.position(), n);
+		o.position(o.position()+n);
+		int degree = o.getInt();
+		if (degree < 0 || degree > MAX_DEGREE){
+			return false;
+		}
+		for (int i=0; i<degree; i++){
+			if (!patchIndexRecurse(o, subtrees, depth+1)){
+				return false;
+			}
+		}
+		subtrees.put(key, new int[]{start, o.position()});
+		return true;
+	}
+	/** Run a signing task on the pool. A worker that cannot sign completes
+	 *  its task exceptionally, which fork-join wraps on the way out, so the
+	 *  SignatureException is found in the causes and thrown as itself.
+	 *  @param pool fork-join pool to run task on
+	 *  @param task signing task
+	 *  @throws SignatureException if any worker failed to sign
+	 */
+	protected static void invokeSigning(ForkJoinPool pool, ForkJoinTask<?> task) throws SignatureException{
+		try {
+			pool.invoke(task);
+		} catch (RuntimeException e){
+			for (Throwable c = e; c != null; c = c.getCause()){
+				if (c instanceof SignatureException){
+					throw (SignatureException) c;
+				}
+			}
+			throw e;
+		}
+	}
+	/** Sign every CHUNK_SIZE slice of a file in parallel. Chunk ranges are
+	 *  fanned out to the pool, each worker signs every range it takes with its
+	 *  own Signature and writes into a presized array so signatures come back
+	 *  in file order.
+	 *  @param file byte array to be signed in chunks
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign chunks on
+	 *  @return byte[][] signature of each chunk in order
+	 *  @throws SignatureException if any chunk cannot be signed
+	 */
+	protected static byte[][] signChunks(byte[] file, SignatureFactory signers, ForkJoinPool pool) throws SignatureException{
+		// presize output for number of chunks in file (last may be partial)
+		byte[][] sigs = new byte[(file.length+CHUNK_SIZE-1)/CHUNK_SIZE][];
+		invokeSigning(pool, new ChunkSignTask(file, sigs, 0, sigs.length, new SignaturePool(signers)));
+		return sigs;
+	}
+	/** Fork-join task signing a range of chunks of a file. Ranges larger than
+	 *  LEAF_SPAN are split in half, each remaining range is signed with its
+	 *  worker's Signature from the pool. Completes exceptionally if a chunk
+	 *  cannot be signed.
+	 */
+	private static class ChunkSignTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final byte[] file;		// file being signed
+		private final byte[][] sigs;	// output signature for each chunk
+		private final int from;		// first chunk of range (inclusive)
+		private final int to;		// last chunk of range (exclusive)
+		private final SignaturePool signers;	// Signature of each worker
+		
+		public ChunkSignTask(byte[] file, byte[][] sigs, int from, int to, SignaturePool signers){
+			this.file = file;
+			this.sigs = sigs;
+			this.from = from;
+			this.to = to;
+			this.signers = signers;
+		}
+		protected void compute(){
+			// if range too large, split in half and sign both halves
+			if (to-from > LEAF_SPAN){
+				int mid = (from+to) >>> 1;
+				invokeAll(new ChunkSignTask(file, sigs, from, mid, signers), new ChunkSignTask(file, sigs, mid, to, signers));
+			} else {
+				// sign each chunk in range with this worker's own signature
+				Signature signer = signers.get();
+				if (signer == null){
+					completeExceptionally(new SignatureException("no signer for worker"));
+					return;
+				}
+				try {
+					for (int c=from; c<to; c++){
+						int i = c*CHUNK_SIZE;
+						// use the smaller of default chunk size and remaining file portion
+						int this_size = (file.length-i > CHUNK_SIZE) ? CHUNK_SIZE : file.length-i;
+						signer.update(file, i, this_size);
+						sigs[c] = signer.sign();
+					}
+				} catch (SignatureException e){
+					completeExceptionally(e);
+				}
+			}
+		}
+	}
+	/** Read the next chunk of a stream, blocking until the chunk is full or the
+	 *  stream ends (a single read() may return less than a full chunk).
+	 *  @param in stream to read from
+	 *  @param chunk buffer to fill
+	 *  @return number of bytes read into chunk, 0 if at end of stream
+	 *  @throws IOException if read fails
+	 */
+	protected static int readChunk(InputStream in, byte[] chunk) throws IOException{
+		int size = 0;	// bytes read into chunk so far
+		while (size < chunk.length){
+			int n = in.read(chunk, size, chunk.length-size);
+			// stop at end of stream
+			if (n < 0){
+				break;
+			}
+			size += n;
+		}
+		return size;
+	}
 	/** Initialize psuedorandom number generator for class if not already initialized.
 	 *  @return new PRNG, null if failure
 	 */
@@ -192,6 +1031,22 @@ public abstract class ObliviousTree {
 			System.arraycopy(n, 0, this.data, this.index, n.length);
 			this.index += n.length;
 		}
+		/** Append given int as 4 bytes, big-endian
+		 *  @param n int to be appended
+		 */
+		public void appendInt(int n){
+			append(4);
+			ByteBuffer.wrap(this.data).putInt(this.index, n);
+			this.index += 4;
+		}
+		/** Append given long as 8 bytes, big-endian
+		 *  @param n long to be appended
+		 */
+		public void appendLong(long n){
+			append(8);
+			ByteBuffer.wrap(this.data).putLong(this.index, n);
+			this.index += 8;
+		}
 		/** Prepare storage array to store additional data
 		 *  If array is not large enough to store given amount 
 		 *  Will double size (repeatedly).
@@ -211,6 +1066,85 @@ public abstract class ObliviousTree {
 			}
 		}		
 	}
+	/** helper class for streaming signature output to a channel, records
+	 *  are gathered in the calling thread's direct buffer, which is written
+	 *  out whenever the next record does not fit.
+	 */
+	protected static class ByteOutChannel {
+		private final WritableByteChannel out;	// channel output is written to
+		private final ByteBuffer buf;	// buffer of output not yet written
+		public ByteOutChannel(WritableByteChannel out){
+			this.out = out;
+			this.buf = outBuf.get();
+			this.buf.clear();
+		}
+		/** append one node as {sig_size}{sig}{degree}
+		 *  @param sig signature of node
+		 *  @param degree number of children of node
+		 *  @throws IOException if writing to channel fails
+		 */
+		public void append(byte[] sig, int degree) throws IOException{
+			append(sig.length);
+			append(sig);
+			append(degree);
+		}
+		/** append one node as {sig_size}{sig}{degree}, signature read in place
+		 *  @param sig view of signature of node, consumed
+		 *  @param degree number of children of node
+		 *  @throws IOException if writing to channel fails
+		 */
+		public void append(ByteBuffer sig, int degree) throws IOException{
+			append(sig.remaining());
+			while (sig.hasRemaining()){
+				if (!this.buf.hasRemaining()){
+					drain();
+				}
+				int lim = sig.limit();
+				sig.limit(sig.position()+Math.min(this.buf.remaining(), sig.remaining()));
+				this.buf.put(sig);
+				sig.limit(lim);
+			}
+			append(degree);
+		}
+		/** append given array, writing out buffer as it fills
+		 *  @param b byte array to be appended
+		 *  @throws IOException if writing to channel fails
+		 */
+		public void append(byte[] b) throws IOException{
+			int off = 0;
+			while (off < b.length){
+				if (!this.buf.hasRemaining()){
+					drain();
+				}
+				int n = Math.min(this.buf.remaining(), b.length-off);
+				this.buf.put(b, off, n);
+				off += n;
+			}
+		}
+		/** append given int as 4 bytes, big-endian
+		 *  @param n int to be appended
+		 *  @throws IOException if writing to channel fails
+		 */
+		public void append(int n) throws IOException{
+			if (this.buf.remaining() < 4){
+				drain();
+			}
+			this.buf.putInt(n);
+		}
+		/** write out everything still buffered
+		 *  @throws IOException if writing to channel fails
+		 */
+		public void flush() throws IOException{
+			drain();
+		}
+		private void drain() throws IOException{
+			this.buf.flip();
+			while (this.buf.hasRemaining()){
+				this.out.write(this.buf);
+			}
+			this.buf.clear();
+		}
+	}
 	/** helper method to concatenate byte arrays together
 	 * ordered as AB, will accept either as null
 	 * @param A first array
@@ -0,0 +1,241 @@
+package oblivious;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Oblivious Tree - COP 6616
+ *  Off-heap store for node signatures. Signatures are kept in fixed size
+ *  slots of direct ByteBuffer pages rather than one small byte[] per node, so
+ *  a large tree does not fill the heap with arrays the collector must trace
+ *  and copy. Each slot holds a 2 byte length then the signature. A slot
+ *  belongs to the node it was allocated for until that node is collected,
+ *  when it is reclaimed on a later allocation. Pages are added as needed and
+ *  never released. Slots are allocated from several stripes, each with its
+ *  own pages and lock, and a thread allocates from the stripe its id picks,
+ *  so threads signing at once seldom wait on each other. Safe for use by
+ *  several threads.
+ * @author William Strickland and Chris Fontaine
+ */
+public class SigArena {
+
+	/* Class Properties */
+	private static final int PAGE_SLOTS = 4096;	// default slots per page
+
+	/* Instance Properties */
+	private final int maxSig;		// longest signature a slot holds
+	private final int slotSize;		// bytes per slot, length then signature
+	private final int pageSlots;	// slots per page
+	private final Stripe[] stripes;	// independently locked parts of arena, slot s is in stripe s%stripes.length
+
+	/** reference to the owner of a slot, queued once the owner is collected
+	 */
+	private static class SlotRef extends PhantomReference<Object> {
+		private final int slot;	// slot owned, numbered within its stripe
+		private SlotRef(Object owner, ReferenceQueue<Object> q, int slot){
+			super(owner, q);
+			this.slot = slot;
+		}
+	}
+	/** pages and free slots of one stripe, guarded by its own lock
+	 */
+	private class Stripe {
+		private volatile ByteBuffer[] pages;	// direct pages of slots
+		private SlotRef[] owners;		// reference to owner of each slot, null if free
+		private int[] free;				// stack of reclaimed slots
+		private int freeCnt;			// number of slots on free stack
+		private int next;				// lowest slot never allocated
+		private final ReferenceQueue<Object> dead;	// owners that have been collected
+
+		private Stripe(){
+			this.pages = new ByteBuffer[0];
+			this.owners = new SlotRef[0];
+			this.free = new int[16];
+			this.freeCnt = 0;
+			this.next = 0;
+			this.dead = new ReferenceQueue<Object>();
+		}
+		/** @return slot in this stripe allocated to owner, -1 if out of memory
+		 */
+		private synchronized int allocate(Object owner){
+			reclaim();
+			int slot;
+			if (this.freeCnt > 0){
+				slot = this.free[--this.freeCnt];
+			} else {
+				if (this.next == this.owners.length){
+					try {
+						// add a page, published after it is fully set up
+						ByteBuffer[] p = Arrays.copyOf(this.pages, this.pages.length+1);
+						p[p.length-1] = ByteBuffer.allocateDirect(pageSlots*slotSize);
+						this.owners = Arrays.copyOf(this.owners, this.owners.length+pageSlots);
+						this.pages = p;
+					} catch (OutOfMemoryError e){
+						return -1;
+					}
+				}
+				slot = this.next++;
+			}
+			this.owners[slot] = new SlotRef(owner, this.dead, slot);
+			return slot;
+		}
+		/** @return number of slots allocated to owners not yet found collected
+		 */
+		private synchronized int used(){
+			reclaim();
+			return this.next - this.freeCnt;
+		}
+		/** return slots of collected owners to the free stack, caller holds lock
+		 */
+		private void reclaim(){
+			Reference<? extends Object> r;
+			while ((r = this.dead.poll()) != null){
+				int slot = ((SlotRef) r).slot;
+				this.owners[slot] = null;
+				if (this.freeCnt == this.free.length){
+					this.free = Arrays.copyOf(this.free, this.free.length*2);
+				}
+				this.free[this.freeCnt++] = slot;
+			}
+		}
+	}
+
+	// Constructors
+	/** arena with slots for signatures up to the given length, with a stripe
+	 *  per available processor
+	 *  @param maxSig longest signature to be stored, longer are left on heap
+	 */
+	public SigArena(int maxSig){
+		this(maxSig, PAGE_SLOTS);
+	}
+	/** arena with slots for signatures up to the given length, with a stripe
+	 *  per available processor
+	 *  @param maxSig longest signature to be stored, at most 65535
+	 *  @param pageSlots number of slots allocated together in one page
+	 */
+	public SigArena(int maxSig, int pageSlots){
+		this(maxSig, pageSlots, Runtime.getRuntime().availableProcessors());
+	}
+	/** arena with slots for signatures up to the given length
+	 *  @param maxSig longest signature to be stored, at most 65535
+	 *  @param pageSlots number of slots allocated together in one page
+	 *  @param stripes number of independently locked stripes
+	 */
+	public SigArena(int maxSig, int pageSlots, int stripes){
+		if (maxSig <= 0 || maxSig > 0xffff || pageSlots <= 0 || (long) pageSlots*(maxSig+2) > Integer.MAX_VALUE || stripes <= 0){
+			throw new IllegalArgumentException("bad arena size "+maxSig+" x "+pageSlots+" in "+stripes);
+		}
+		this.maxSig = maxSig;
+		this.slotSize = maxSig+2;
+		this.pageSlots = pageSlots;
+		this.stripes = new Stripe[stripes];
+		for (int i=0; i<stripes; i++){
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	// Instance methods
+	/** allocate a slot for the given owner from the calling thread's stripe,
+	 *  reclaiming slots of collected owners first. The slot is freed once the
+	 *  owner is collected.
+	 *  @param owner object the slot belongs to
+	 *  @return slot allocated, -1 if out of memory
+	 */
+	public int allocate(Object owner){
+		int n = this.stripes.length;
+		int i = (int) (Thread.currentThread().getId() % n);
+		int slot = this.stripes[i].allocate(owner);
+		if (slot < 0 || (long) slot*n + i > Integer.MAX_VALUE){
+			return -1;
+		}
+		return slot*n + i;
+	}
+	/** store signature in slot, overwriting what it held
+	 *  @param slot slot allocated to caller
+	 *  @param s signature to store
+	 *  @return true if stored, false if too long for a slot
+	 */
+	public boolean put(int slot, byte[] s){
+		if (s.length > this.maxSig){
+			return false;
+		}
+		ByteBuffer b = page(slot);
+		int off = offset(slot);
+		b.putShort(off, (short) s.length);
+		b.position(off+2);
+		b.put(s);
+		return true;
+	}
+	/** @param slot slot allocated to caller
+	 *  @return length of signature held in slot
+	 */
+	public int length(int slot){
+		return page(slot).getShort(offset(slot)) & 0xffff;
+	}
+	/** copy signature held in slot into given array
+	 *  @param slot slot allocated to caller
+	 *  @param dst array to copy into
+	 *  @param off offset in dst to copy to
+	 *  @return length of signature copied
+	 */
+	public int get(int slot, byte[] dst, int off){
+		ByteBuffer b = page(slot);
+		int o = offset(slot);
+		int len = b.getShort(o) & 0xffff;
+		b.position(o+2);
+		b.get(dst, off, len);
+		return len;
+	}
+	/** read only view of signature held in slot, without copying. Only valid
+	 *  while the owner of the slot is reachable.
+	 *  @param slot slot allocated to caller
+	 *  @return buffer holding just the signature
+	 */
+	public ByteBuffer view(int slot){
+		ByteBuffer b = page(slot);
+		int o = offset(slot);
+		int len = b.getShort(o) & 0xffff;
+		b.limit(o+2+len);
+		b.position(o+2);
+		return b.slice().asReadOnlyBuffer();
+	}
+	/** @return longest signature a slot holds
+	 */
+	public int getMaxSig(){
+		return this.maxSig;
+	}
+	/** @return number of slots allocated to owners not yet found collected
+	 */
+	public int getSlotsUsed(){
+		int used = 0;
+		for (Stripe st : this.stripes){
+			used += st.used();
+		}
+		return used;
+	}
+	/** @return bytes of direct memory held by pages
+	 */
+	public long getReservedBytes(){
+		long pages = 0;
+		for (Stripe st : this.stripes){
+			pages += st.pages.length;
+		}
+		return pages*this.pageSlots*this.slotSize;
+	}
+
+	// Helpers
+	/** @return private view of page holding slot, so position and limit
+	 *  are not shared between threads
+	 */
+	private ByteBuffer page(int slot){
+		int n = this.stripes.length;
+		return this.stripes[slot%n].pages[(slot/n)/this.pageSlots].duplicate();
+	}
+	/** @return offset of slot within its page
+	 */
+	private int offset(int slot){
+		return ((slot/this.stripes.length)%this.pageSlots)*this.slotSize;
+	}
+}
@@ -0,0 +1,98 @@
+package oblivious;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+
+/** Oblivious Tree - COP 6616
+ *  Factory for independent, initialized Signature objects. Signature objects
+ *  are stateful and the standard providers do not support clone(), so any code
+ *  signing or verifying tree nodes on several threads at once must be able to
+ *  create a separate Signature for each thread.
+ * @author William Strickland and Chris Fontaine
+ */
+public class SignatureFactory {
+
+	// Instance properties
+	private final String algorithm;		// signature algorithm name (ex. SHA1withDSA)
+	private final PrivateKey signKey;	// key for signing, null if verifying factory
+	private final PublicKey verifyKey;	// key for verifying, null if signing factory
+	private final NodeSigner nodeSigner;		// signing scheme, null if built from key
+	private final NodeVerifier nodeVerifier;	// verifying scheme, null if built from key
+
+	// Constructors
+	/** Factory creating Signature objects initialized for signing.
+	 *  @param algorithm name of signature algorithm
+	 *  @param key private key to sign with
+	 */
+	public SignatureFactory(String algorithm, PrivateKey key){
+		this.algorithm = algorithm;
+		this.signKey = key;
+		this.verifyKey = null;
+		this.nodeSigner = null;
+		this.nodeVerifier = null;
+	}
+	/** Factory creating Signature objects initialized for verification.
+	 *  @param algorithm name of signature algorithm
+	 *  @param key public key to verify with
+	 */
+	public SignatureFactory(String algorithm, PublicKey key){
+		this.algorithm = algorithm;
+		this.signKey = null;
+		this.verifyKey = key;
+		this.nodeSigner = null;
+		this.nodeVerifier = null;
+	}
+	/** Factory creating Signature objects from a node signing scheme.
+	 *  @param scheme signing scheme to create Signatures from
+	 */
+	public SignatureFactory(NodeSigner scheme){
+		this.algorithm = scheme.getAlgorithm();
+		this.signKey = null;
+		this.verifyKey = null;
+		this.nodeSigner = scheme;
+		this.nodeVerifier = null;
+	}
+	/** Factory creating Signature objects from a node verifying scheme.
+	 *  @param scheme verifying scheme to create Signatures from
+	 */
+	public SignatureFactory(NodeVerifier scheme){
+		this.algorithm = scheme.getAlgorithm();
+		this.signKey = null;
+		this.verifyKey = null;
+		this.nodeSigner = null;
+		this.nodeVerifier = scheme;
+	}
+
+	// Instance methods
+	/** create a new Signature object, initialized for signing or
+	 *  verifying depending on the key this factory was given.
+	 *  @return new initialized Signature
+	 *  @throws GeneralSecurityException if algorithm unavailable or key rejected
+	 */
+	public Signature newInstance() throws GeneralSecurityException{
+		if (this.nodeSigner != null){
+			return this.nodeSigner.newSigner();
+		} else if (this.nodeVerifier != null){
+			return this.nodeVerifier.newVerifier();
+		}
+		Signature tmp = Signature.getInstance(this.algorithm);
+		if (this.signKey != null){
+			tmp.initSign(this.signKey);
+		} else {
+			tmp.initVerify(this.verifyKey);
+		}
+		return tmp;
+	}
+	/** @return true if factory creates signing Signatures, false if verifying
+	 */
+	public boolean isSigner(){
+		return this.signKey != null || this.nodeSigner != null;
+	}
+	/** @return name of signature algorithm
+	 */
+	public String getAlgorithm(){
+		return this.algorithm;
+	}
+}
@@ -0,0 +1,55 @@
+package oblivious;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+
+/** Oblivious Tree - COP 6616
+ *  Per-thread pool of initialized Signature objects. Signature objects are
+ *  stateful and not thread safe, so a Signature shared by several threads can
+ *  interleave updates and produce corrupt signatures. A pool hands each thread
+ *  its own Signature, created and initialized with the key on first use and
+ *  reused after that, so the key is not re-initialized on every signing.
+ * @author William Strickland and Chris Fontaine
+ */
+public class SignaturePool {
+
+	/* Instance Properties */
+	private final SignatureFactory factory;		// source of new Signatures
+	private final ThreadLocal<Signature> local;	// Signature of each thread, null until first use
+	
+	// Constructors
+	/** Pool creating per-thread Signatures from the given factory.
+	 *  @param factory factory for initialized Signatures
+	 */
+	public SignaturePool(SignatureFactory factory){
+		this.factory = factory;
+		this.local = new ThreadLocal<Signature>();
+	}
+	
+	// Instance methods
+	/** get the calling thread's Signature, creating it on first use.
+	 *  @return Signature owned by calling thread, null if one cannot be created
+	 */
+	public Signature get(){
+		Signature tmp = this.local.get();
+		if (tmp == null){
+			try {
+				tmp = this.factory.newInstance();
+			} catch (GeneralSecurityException e){
+				return null;
+			}
+			this.local.set(tmp);
+		}
+		return tmp;
+	}
+	/** @return true if pool hands out signing Signatures, false if verifying
+	 */
+	public boolean isSigner(){
+		return this.factory.isSigner();
+	}
+	/** @return name of signature algorithm
+	 */
+	public String getAlgorithm(){
+		return this.factory.getAlgorithm();
+	}
+}
@@ -1,19 +1,35 @@
 package oblivious.concurrent;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Random;
-import java.util.Vector;
-import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import oblivious.ObliviousTree;
+import oblivious.SigArena;
+import oblivious.SignatureFactory;
+import oblivious.SignaturePool;
 
 /** Oblivious Tree - COP 6616
  * @author William Strickland and Chris Fontaine
@@ -22,6 +38,15 @@ import oblivious.ObliviousTree;
 public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 
 	/* Class Properties */
+	// Number of nodes of a level signed by a single fork-join task
+	private static final int SIGN_SPAN = 64;
+	// Bytes of signature output written by a single fork-join task
+	private static final int SERIAL_SPAN = 64*1024;
+	// Bounds (ns) on how long a waiting thread parks between looks at curTask
+	private static final long MIN_PARK = 1000L;
+	private static final long MAX_PARK = 1000000L;
+	// Most queued tasks combined into one batch
+	private static final int MAX_BATCH = 64;
 	// Random source for creating obliviousness
 	private static final ThreadLocal<Random> rndSrc = 
 			new ThreadLocal <Random> () {
@@ -29,11 +54,18 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 					return ConcurrentObliviousTree.initPRNG();
 				}
 			};
+	// Swings root to new tree once an insert or delete has been linked
+	private static final AtomicReferenceFieldUpdater<ConcurrentObliviousTree, OTree_Node> ROOT =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentObliviousTree.class, OTree_Node.class, "root");
 	
 	/* Instance Properties */
-	private OTree_Node root;	// root node of tree
+	private volatile OTree_Node root;	// root node of tree
 	private AtomicReference<TaskDesc> curTask;	// current task to be completed
 	private ConcurrentLinkedQueue<TaskDesc> taskQueue;	// queue of pending tasks
+	private final AtomicBoolean combiner = new AtomicBoolean(false);	// held while draining queue into a batch
+	private volatile SignaturePool signers;	// per-thread signing Signatures, null to sign with caller's
+	private long verifiedTo = 0;	// stamp of root last checked by verifyWrites
+	private volatile SigArena sigArena = null;	// off-heap store for node signatures, null for heap
 	
 	/** Constructor generates empty initial tree.
 	 */
@@ -44,12 +76,30 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
 	}
 	/** Constructor generates initial leaf node using using a given input file.
+	 *  @throws IOException if file cannot be read
+	 *  @throws GeneralSecurityException if a node cannot be signed
 	 */
-	public ConcurrentObliviousTree(FileInputStream file, Signature signer){
+	public ConcurrentObliviousTree(FileInputStream file, Signature signer) throws IOException, GeneralSecurityException{
 		//1). Instantiate root node
 		root = new OTree_Node();
-		//2). Create Oblivious Tree
-		create(generateLeaves(file, signer),signer);
+		//2). Stream leaf nodes from the file into the Oblivious Tree
+		build(file, signer);
+		// initialize task queue system
+		curTask = new AtomicReference<TaskDesc>(new TaskDesc());
+		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
+	}
+	/** Constructor generates initial leaf node using a given input file, which is
+	 *  memory-mapped rather than read so leaves are signed straight from the mapping.
+	 *  @param file path of file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be opened or mapped
+	 *  @throws GeneralSecurityException if a node cannot be signed
+	 */
+	public ConcurrentObliviousTree(Path file, Signature signer) throws IOException, GeneralSecurityException{
+		//1). Instantiate root node
+		root = new OTree_Node();
+		//2). Stream leaf nodes from the mapped file into the Oblivious Tree
+		build(file, signer);
 		// initialize task queue system
 		curTask = new AtomicReference<TaskDesc>(new TaskDesc());
 		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
@@ -65,37 +115,209 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		curTask = new AtomicReference<TaskDesc>(new TaskDesc());
 		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
 	}
+	/** Constructor generates initial leaf node using using a given input file.
+	 *  Internal levels of the tree are signed in parallel on the given pool,
+	 *  which needs a whole level at hand, so unlike the streaming constructor
+	 *  every leaf is read before the first parent is signed.
+	 *  @param file file to be put signed in leaves
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign internal nodes on
+	 *  @throws IOException if file cannot be read
+	 *  @throws GeneralSecurityException if a node cannot be signed
+	 */
+	public ConcurrentObliviousTree(FileInputStream file, SignatureFactory signers, ForkJoinPool pool) throws IOException, GeneralSecurityException{
+		//1). Instantiate root node
+		root = new OTree_Node();
+		//2). Create Oblivious Tree
+		this.signers = new SignaturePool(signers);
+		create(generateLeaves(file, signers.newInstance()), this.signers, pool);
+		// initialize task queue system
+		curTask = new AtomicReference<TaskDesc>(new TaskDesc());
+		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
+	}
+	/** Constructor generates initial leaf node using using a given input byte array.
+	 *  Leaves and internal levels of the tree are signed in parallel on the given pool.
+	 *  @param file byte array to be put signed in leaves
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign internal nodes on
+	 *  @throws GeneralSecurityException if a node cannot be signed
+	 */
+	public ConcurrentObliviousTree(byte[] file, SignatureFactory signers, ForkJoinPool pool) throws GeneralSecurityException{
+		//1). Instantiate root node
+		root = new OTree_Node();
+		this.signers = new SignaturePool(signers);
+		//2). Create Oblivious Tree, leaves and internal levels signed in parallel
+		create(generateLeaves(file, signers, pool), this.signers, pool);
+		// initialize task queue system
+		curTask = new AtomicReference<TaskDesc>(new TaskDesc());
+		taskQueue = new ConcurrentLinkedQueue<TaskDesc>();
+	}
 	
 	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
 	 *  and, after taking a number between two and three, generate a number of non-leaf, which
 	 *  @param file file to be put signed in leaves
 	 *  @param signer signature to be used for signing leaves
 	 *  @return list of leaves created
+	 *  @throws IOException if file cannot be read
+	 *  @throws SignatureException if a leaf cannot be signed
 	 */
-	private ArrayList<OTree_Elem> generateLeaves(FileInputStream file, Signature signer){
+	private ArrayList<OTree_Elem> generateLeaves(FileInputStream file, Signature signer) throws IOException, SignatureException{
 		int this_size;
 		ArrayList<OTree_Elem> tmp = new ArrayList<OTree_Elem>();
 		byte[] chunk = new byte[ObliviousTree.CHUNK_SIZE];
+		// loop until reaches end of file
+		while((this_size = ObliviousTree.readChunk(file, chunk)) > 0){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			signer.update(chunk, 0, this_size);
+			newLeaf.setSig(signer.sign(), this.sigArena);
+			tmp.add(newLeaf);
+		}
+		return tmp;
+	} //*/
+	/** Streaming version of generateLeaves() followed by create(). Chunks are read
+	 *  and signed one at a time and every 2/3 group is linked to a signed parent as
+	 *  soon as it fills, so only the open parent of each level is held at once and
+	 *  temporary memory scales with tree height rather than file size. Degrees are
+	 *  drawn left to right per level just as in create(), giving the same shape
+	 *  distribution.
+	 *  @param file file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be read
+	 *  @throws SignatureException if a node cannot be signed, no tree is built
+	 */
+	private void build(FileInputStream file, Signature signer) throws IOException, SignatureException{
+		// parent being filled at each level (index 0 is parent of leaves)
+		ArrayList<OTree_Node> open = new ArrayList<OTree_Node>();
+		// random degree chosen for open parent of each level
+		ArrayList<Integer> degree = new ArrayList<Integer>();
+		byte[] chunk = new byte[ObliviousTree.CHUNK_SIZE];
+		int this_size;
+		// loop until reaches end of file
+		while((this_size = ObliviousTree.readChunk(file, chunk)) > 0){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			signer.update(chunk, 0, this_size);
+			newLeaf.setSig(signer.sign(), this.sigArena);
+			// link leaf into tree, completing any full parents above it
+			streamLink(open, degree, 0, newLeaf, signer);
+		}
+		// close remaining open parents and set root
+		streamFinish(open, degree, signer);
+	}
+	/** Memory-mapped version of build(). The file is mapped in windows of whole
+	 *  chunks and each leaf is signed straight from the mapping through
+	 *  Signature.update(ByteBuffer), with no copy of the chunk onto the heap.
+	 *  @param file path of file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be opened or mapped
+	 *  @throws SignatureException if a leaf cannot be signed, no tree is built
+	 */
+	private void build(Path file, Signature signer) throws IOException, SignatureException{
+		// parent being filled at each level (index 0 is parent of leaves)
+		ArrayList<OTree_Node> open = new ArrayList<OTree_Node>();
+		// random degree chosen for open parent of each level
+		ArrayList<Integer> degree = new ArrayList<Integer>();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
 		try {
-			// loop until reaches end of file
-			while(true){
-				this_size = file.read(chunk);
-				OTree_Leaf newLeaf = new OTree_Leaf();
-				signer.update(chunk, 0, this_size);
-				newLeaf.setSig(signer.sign());
-				tmp.add(newLeaf);
-				
-				// if less than whole chunk, reached end of file
-				if (this_size < ObliviousTree.CHUNK_SIZE){
-					// break out of loop
-					break;
+			long size = channel.size();
+			// map file a window at a time, windows hold whole chunks only
+			for (long pos=0; pos<size; pos+=ObliviousTree.MAP_WINDOW){
+				MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(ObliviousTree.MAP_WINDOW, size-pos));
+				int end = buf.limit();
+				// loop until reaches end of window
+				while (buf.hasRemaining()){
+					OTree_Leaf newLeaf = new OTree_Leaf();
+					// limit buffer to next chunk, update consumes it up to limit
+					buf.limit(Math.min(buf.position()+ObliviousTree.CHUNK_SIZE, end));
+					signer.update(buf);
+					buf.limit(end);
+					newLeaf.setSig(signer.sign(), this.sigArena);
+					// link leaf into tree, completing any full parents above it
+					streamLink(open, degree, 0, newLeaf, signer);
 				}
 			}
-			return tmp;
-		} catch (Exception e){
-			return null;
+		} finally {
+			channel.close();
 		}
-	} //*/
+		// close remaining open parents and set root
+		streamFinish(open, degree, signer);
+	}
+	/** Close the parents left open at the end of a streaming build from the
+	 *  bottom up, linking each into the level above, and set the root.
+	 *  @param open parent being filled at each level
+	 *  @param degree random degree chosen for open parent of each level
+	 *  @param signer signature to be used for signing completed parents
+	 *  @throws SignatureException if a parent cannot be signed
+	 */
+	private void streamFinish(ArrayList<OTree_Node> open, ArrayList<Integer> degree, Signature signer) throws SignatureException{
+		// close remaining open parents from the bottom up
+		for (int lvl=0; lvl<open.size(); lvl++){
+			OTree_Node parent = open.get(lvl);
+			if (parent == null){
+				continue;
+			}
+			open.set(lvl, null);
+			// top level with single internal child, that child is the root
+			if (lvl == open.size()-1 && lvl > 0 && parent.getDegree() == 1){
+				this.root = (OTree_Node) parent.getChild(0);
+				this.root.clearParent();
+				break;
+			}
+			// finish partial parent
+			parent.calcLeafCnt();
+			if (!updateSig(parent, signer, this.sigArena)){
+				throw new SignatureException("cannot sign node");
+			}
+			// top level, this parent is the root
+			if (lvl == open.size()-1){
+				this.root = parent;
+				break;
+			}
+			// otherwise it is the next node of the level above
+			streamLink(open, degree, lvl+1, parent, signer);
+		}
+	}
+	/** Link a completed node into the open parent of the given level. If that
+	 *  parent reaches its random degree it is signed and linked into the level
+	 *  above, repeating until a parent is left open.
+	 *  @param open parent being filled at each level
+	 *  @param degree random degree chosen for open parent of each level
+	 *  @param lvl level of parent to link node into
+	 *  @param e completed node to be linked
+	 *  @param signer signature to be used for signing completed parents
+	 *  @throws SignatureException if a parent cannot be signed
+	 */
+	private void streamLink(ArrayList<OTree_Node> open, ArrayList<Integer> degree, int lvl, OTree_Elem e, Signature signer) throws SignatureException{
+		while (e != null){
+			// grow level lists when tree grows taller
+			if (lvl == open.size()){
+				open.add(null);
+				degree.add(0);
+			}
+			// start new parent with random degree if none open
+			OTree_Node parent = open.get(lvl);
+			if (parent == null){
+				parent = new OTree_Node();
+				open.set(lvl, parent);
+				degree.set(lvl, (rndSrc.get().nextBoolean()) ? 2 : 3);
+			}
+			// link node to parent as child
+			parent.addChild(e);
+			e.setParent(parent);
+			if (parent.getDegree() < degree.get(lvl)){
+				// parent still open, done
+				e = null;
+			} else {
+				// parent full, finish it and pass up to next level
+				parent.calcLeafCnt();
+				if (!updateSig(parent, signer, this.sigArena)){
+					throw new SignatureException("cannot sign node");
+				}
+				open.set(lvl, null);
+				e = parent;
+				lvl++;
+			}
+		}
+	}
 	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
 	 *  and, after taking a number between two and three, generate a number of non-leaf, which
 	 *  @param file byte array to be put signed in leaves
@@ -112,7 +334,7 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 				OTree_Leaf newLeaf = new OTree_Leaf();
 				this_size = (file.length-i>ObliviousTree.CHUNK_SIZE) ? ObliviousTree.CHUNK_SIZE : file.length-i;
 				signer.update(file, i, this_size);
-				newLeaf.setSig(signer.sign());
+				newLeaf.setSig(signer.sign(), this.sigArena);
 				tmp.add(newLeaf);
 			}
 			return tmp;
@@ -120,6 +342,24 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 			return null;
 		}
 	} //*/
+	/** Parallel version of generateLeaves(). Chunks are signed on the pool
+	 *  (see ObliviousTree.signChunks) and then wrapped in leaves in order.
+	 *  @param file byte array to be put signed in leaves
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign chunks on
+	 *  @return list of leaves created
+	 *  @throws SignatureException if a chunk cannot be signed
+	 */
+	private ArrayList<OTree_Elem> generateLeaves(byte[] file, SignatureFactory signers, ForkJoinPool pool) throws SignatureException{
+		byte[][] sigs = ObliviousTree.signChunks(file, signers, pool);
+		ArrayList<OTree_Elem> tmp = new ArrayList<OTree_Elem>(sigs.length);
+		for (byte[] s : sigs){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			newLeaf.setSig(s, this.sigArena);
+			tmp.add(newLeaf);
+		}
+		return tmp;
+	}
 	
 	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
 	 *  and, after taking a number between two and three, generate a number of non-leaf, which
@@ -155,8 +395,9 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 					// increment index
 					i++;
 				}
-				// update new node signature
-				updateSig(newNode, signer);
+				// update new node leaf count and signature
+				newNode.calcLeafCnt();
+				updateSig(newNode, signer, this.sigArena);
 				// add new node to current level
 				currentLevel.add(newNode);
 			}
@@ -168,567 +409,498 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		// previousLevel, make that node the root of tree
 		this.root = (OTree_Node) previousLevel.get(0);
 	}
+	/** Parallel version of create(). Each level is built in two passes. First the
+	 *  random 2/3 degrees are drawn and the children linked in order on the calling
+	 *  thread, exactly as create() does, so the shape distribution is unchanged.
+	 *  Then the new level is split into spans that are signed on the pool.
+	 *  @param leafNodes signed leaves of the tree in order
+	 *  @param signers pool of signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign internal nodes on
+	 *  @throws SignatureException if a node cannot be signed
+	 */
+	private void create(List<OTree_Elem> leafNodes, SignaturePool signers, ForkJoinPool pool) throws SignatureException{
+		// previous (lower) level of tree, to be assigned
+		ArrayList<OTree_Elem> previousLevel;
+		// current level of tree that is being built
+		ArrayList<OTree_Elem> currentLevel;
+		
+		// Initialize with leaf nodes that have already been constructed
+		previousLevel = new ArrayList<OTree_Elem>(leafNodes);
+		
+		// loop while more than a single node in tree
+		do {
+			// create new level list, degree is at least two so at most half the size
+			currentLevel = new ArrayList<OTree_Elem>(previousLevel.size()/2+1);
+			// iterate previous level and assign all nodes to a parent
+			for(int i=0; i<previousLevel.size();){
+				// create a parent node
+				OTree_Node newNode = new OTree_Node();
+				// get random degree
+				int rndDegree = (rndSrc.get().nextBoolean()) ? 2 : 3;
+				// restrict degree with remaining nodes
+				rndDegree = (rndDegree<previousLevel.size()-i) ? rndDegree : previousLevel.size()-i;
+				// assign each node as a child node
+				for (int j=0; j<rndDegree; j++){
+					// link previous level node to new node as child
+					newNode.addChild(previousLevel.get(i));
+					previousLevel.get(i).setParent(newNode);
+					// increment index
+					i++;
+				}
+				// update new node leaf count
+				newNode.calcLeafCnt();
+				// add new node to current level
+				currentLevel.add(newNode);
+			}
+			// sign whole level in parallel, children are already signed
+			ObliviousTree.invokeSigning(pool, new SignLevelTask(currentLevel, 0, currentLevel.size(), signers, this.sigArena));
+			// replace previous level list with current to repeat
+			previousLevel = currentLevel;
+		} while (previousLevel.size() > 1);
+		
+		// when escapes loop must have exactly one node in
+		// previousLevel, make that node the root of tree
+		this.root = (OTree_Node) previousLevel.get(0);
+	}
+	/** Fork-join task signing a span of nodes from a single level of the tree.
+	 *  Spans larger than SIGN_SPAN are split in half, each remaining span signs
+	 *  with its worker's own Signature from the pool since one Signature cannot
+	 *  be shared between threads. Completes exceptionally if a node cannot be
+	 *  signed.
+	 */
+	private static class SignLevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<OTree_Elem> level;	// level of tree being signed
+		private final int from;		// first index of span (inclusive)
+		private final int to;		// last index of span (exclusive)
+		private final SignaturePool signers;	// Signature of each worker
+		private final SigArena arena;	// arena of tree to store signatures in, null for heap
+		
+		public SignLevelTask(List<OTree_Elem> level, int from, int to, SignaturePool signers, SigArena arena){
+			this.level = level;
+			this.from = from;
+			this.to = to;
+			this.signers = signers;
+			this.arena = arena;
+		}
+		protected void compute(){
+			// if span too large, split in half and sign both halves
+			if (to-from > SIGN_SPAN){
+				int mid = (from+to) >>> 1;
+				invokeAll(new SignLevelTask(level, from, mid, signers, arena), new SignLevelTask(level, mid, to, signers, arena));
+			} else {
+				// sign each node in span with this worker's own signature
+				Signature signer = signers.get();
+				if (signer == null){
+					completeExceptionally(new SignatureException("no signer for worker"));
+					return;
+				}
+				for (int i=from; i<to; i++){
+					if (!updateSig(level.get(i), signer, arena)){
+						completeExceptionally(new SignatureException("cannot sign node "+i+" of level"));
+						return;
+					}
+				}
+			}
+		}
+	}
 	
         /**
-         * 
-         * @param int i
-         * @return OTree_Elem node
+         * Finds the ith leaf of the tree by order-statistic descent. At each
+         * node the leaf counts of the children are used to pick the child
+         * holding the leaf, so the cost is O(height) and no child arrays are
+         * copied on the way down.
+         * @param int i index of leaf (0 based)
+         * @return OTree_Elem leaf at index i, null if out of range
          */
         public OTree_Elem getNode(int i)
         {
-            OTree_Elem tempNode;
-            int rangeStart = 1, rangeEnd, rngeCnt, randomDegree;
-            OTree_Elem[] children;
-            
-            tempNode = root;
-            children = tempNode.getChildren();
-            
-            while(children != null)
-            {                
-                for(rngeCnt = 0; rngeCnt < children.length; rngeCnt++)
-                {
-                    rangeEnd = rangeStart + ((children[rngeCnt].getLeafCnt()) - 1);
-                    
-                    if(i >= rangeStart && i <= rangeEnd)
-                    {
-                        tempNode = children[rngeCnt];
-                        break;
-                    }
-                    else
-                    {
-                        rangeStart += ((children[rngeCnt + 1].getLeafCnt()) - 1) ;
-                    }                                        
-                }
-                
-                children = tempNode.getChildren();
-            }
-            
-            return tempNode;
-        }
-        
-        public void concurrentDelete(TaskDesc t)
-        {
-            
-        }
-        
-        private DescStatus randomizeTree(DescStatus currentStatus)
-        {
-            OTree_Node newSubTree = new OTree_Node();
-            DescStatus newStatus = new DescStatus();
-            int w, randomDegree, oldDegree;
+            OTree_Elem tempNode = root;
+            OTree_Elem child;
+            int childIndex, degree;
             
-            OTree_Node currentNode = (OTree_Node)currentStatus.currentNode;
-            OTree_Node parent = (OTree_Node)currentStatus.parent;
-            OTree_Node leafPath = (OTree_Node)currentStatus.leafPath;
-            OTree_Node previousNode = (OTree_Node)currentStatus.previousNode;
-            
-            LinkedList<OTree_Elem> unassigned = currentStatus.unassigned;
-            OTree_Elem[] children = currentNode.getChildren();
-            
-            for(int transfer1 = 0; transfer1 < children.length; transfer1++)
+            if(i < 0 || i >= tempNode.getLeafCnt())
             {
-                newSubTree.addChild(currentNode.getChild(transfer1));
+                return null;
             }
             
-            randomDegree = (rndSrc.get().nextBoolean()) ? 2 : 3;
-            
-            for(int transferRand = 0; transferRand < randomDegree; transferRand++)
-            {
-                if(newSubTree.getDegree() > randomDegree)
-                {
-                    unassigned.push(newSubTree.getChild(newSubTree.getDegree() - 1));
-                    newSubTree.removeChild(newSubTree.getDegree() - 1);
-                }
-                
-                if(unassigned.size() > 0)
-                {
-                    newSubTree.addChild(unassigned.pop());                    
-                }
-                else
-                {
-                    break;
-                }
-            }
-            
-            if(currentNode == null && previousNode.getParent() == null)
-            {
-                /*
-                 * If the current node is sitting in null space, and the parent
-                 * of its previous life is pointing to nothing, this means I was
-                 * at the root and I need to stop.
-                 */
-                newStatus.stage = DescStatus.StatusType.DONE;
-                newStatus.currentNode = previousNode;
-                return newStatus;
-            }
-            else if(currentNode == null && previousNode.getParent() != null)
+            while((degree = tempNode.getDegree()) > 0)
             {
                 /*
-                 * If my previous life has a parent, this means I reached the
-                 * end of the level.
+                 * Skip over each child whose leaves all come before the ith,
+                 * making i relative to the next child. The last child must
+                 * hold the leaf if none before it did.
                  */
+                childIndex = 0;
+                child = tempNode.getChild(childIndex);
                 
-                if(unassigned.size() > 0)
+                while(i >= child.getLeafCnt() && childIndex < degree - 1)
                 {
-                    /*
-                     * I still have unassigned children. Extend the level.
-                     */
-                    
-                    
-                }
-                
-                newStatus.currentNode = leafPath.getParent();
-                newStatus.previousNode = newStatus.currentNode.getPrevNeighbor();
-                newStatus.parent = parent.getParent();
-            }
-            else if(currentNode.getNeighbor() == null)
-            {
-                newStatus.currentNode = leafPath.getParent();
-                newStatus.parent = newStatus.currentNode.getParent();
-            }
-            else
-            {
-                w = 1;
-                randomDegree = (rndSrc.get().nextBoolean()) ? 2 : 3;
-                
-                while(w > 0)
-                {                    
-                    oldDegree = newSubTree.getDegree();
-                    
-                    for(int transfer2 = 0; transfer2 < w; transfer2++)
-                    {
-                        newSubTree.addChild(unassigned.pop());
-                    }
-                    
-                    w = java.lang.Math.max(0, ((oldDegree + w) - randomDegree));
+                    i -= child.getLeafCnt();
+                    child = tempNode.getChild(++childIndex);
                 }
                 
-                
+                tempNode = child;
             }
             
-            
-            
-            return newStatus;
-        }
-        /**
-         * 
-         * @param byte[] value
-         * @param int i
-         * @param Signature signer
-         * @return void
-         */
-        public void concurrentInsert(TaskDesc t)
-        {
-            Random this_rnd = rndSrc.get();
-            int randomDegree, parentIndex = 0;
-            OTree_Node newSubTree;
-            //DescStatus oldStatus = t.status.get();
-            //OTree_Node currentNode = (OTree_Node)oldStatus.currentNode;
-            //LinkedList<OTree_Elem> unassigned = oldStatus.unassigned;
-            OTree_Node neighbor;
-            
-            while(t.status.get().stage != DescStatus.StatusType.DONE)
-            {
-                if(t.status.get().stage == DescStatus.StatusType.NEW)
-                {
-                    OTree_Leaf newLeaf = new OTree_Leaf();
-                    OTree_Leaf leaf = (OTree_Leaf)getNode(t.index);
-                    OTree_Node parent = (OTree_Node)leaf.getParent();
-                    OTree_Elem[] children = parent.getChildren();
-                    OTree_Elem[] parentChildren = parent.getParent().getChildren();
-                    
-                    newSubTree = new OTree_Node();
-                    
-                    for(int transfer1 = 0; transfer1 < children.length; transfer1++)
-                    {
-                        newSubTree.addChild(children[transfer1]);
-                    }
-                    for(int transfer2 = 0; transfer2 < parentChildren.length; transfer2++)
-                    {
-                        if(parent == parentChildren[transfer2])
-                        {
-                            /*
-                             * Here we are fetching the index of the parent
-                             * node we wish to swap out with our new tree.
-                             */
-                            parentIndex = transfer2;
-                            break;
-                        }
-                    }
-                    
-                    newLeaf.setSig(t.data.get().get());
-                    newSubTree.addChild(newLeaf);
-                    newLeaf.setParent(newSubTree);
-                    newSubTree.setNeighbor(parent.getNeighbor());
-                    newSubTree.setPrevNeighbor(parent.getPrevNeighbor());
-                     
-                    DescStatus newStatus = new DescStatus(DescStatus.StatusType.LINK);
-                    
-                    newStatus.index = parentIndex;
-                    newStatus.parent = parent.getParent();                    
-                    newStatus.previousNode = parent.getPrevNeighbor();                                           
-                    newStatus.unassigned = new LinkedList<OTree_Elem>();
-                    newStatus.unassigned.push(newSubTree.getChild(newSubTree.getDegree() - 1));
-                    
-                    newSubTree.removeChild(newSubTree.getDegree() - 1);
-                    newStatus.currentNode = newSubTree;
-                    
-                    
-                    randomDegree = (this_rnd.nextBoolean()) ? 2 : 3;
-                    
-                    if(t.status.compareAndSet(t.status.get(), newStatus))
-                    {
-                        /*
-                         * Updates to the tree can ONLY be made by the thread 
-                         * that passes the compareAndSet
-                         */
-                    }
-                }
-                else if(t.status.get().stage == DescStatus.StatusType.OPEN)
-                {
-                    //If the status is open, then that means we need to propose
-                    //a new subtree to replace whatever the currentNode is
-                    
-                    //newSubTree = new OTree_Node();
-                    //OTree_Elem[] children = t.status.get().currentNode.getChildren();
-                    DescStatus newStatus;
-                    
-                    newStatus = randomizeTree(t.status.get());
-                    
-//                    if(t.status.get().unassigned.size() > 0)
-//                    {
-//                        int limit =  t.status.get().unassigned.size();
-//                        //insert unassigned nodes into currentNode
-//                        for(int transfer1 = 0; transfer1 < limit; transfer1++)
-//                        {                            
-//                            newSubTree.addChild(t.status.get().unassigned.pop());
-//                        }                        
-//                    }
-//                    
-//                    for(int transfer2 = 0; transfer2 < children.length; transfer2++)
-//                    {
-//                        newSubTree.addChild(children[transfer2]);
-//                    }
-//                    
-//                    randomDegree = (this_rnd.nextBoolean()) ? 2 : 3;
-//                    DescStatus newStatus = new DescStatus(DescStatus.StatusType.LINK);
-//                    
-//                    if(randomDegree == newSubTree.getDegree())
-//                    {
-//                        /*
-//                         * Structure synchronized. Stop here for this level
-//                         * and go up to the next level.
-//                         */
-//                        newStatus.currentNode = t.status.get().parent.getParent();
-//                        newStatus.previousNode = newStatus.currentNode.getPrevNeighbor();
-//                        newStatus.parent = newStatus.currentNode.getParent();
-//                        
-//                    }
-//                    else
-//                    {
-//                        
-//                    }
-//                    
-//                    for(int transfer3 = 0; transfer3 < randomDegree; transfer3++)
-//                    {
-//                        t.status.get().unassigned.push(newSubTree.getChild(newSubTree.getDegree() - 1));
-//                        newSubTree.removeChild(newSubTree.getDegree() - 1);
-//                    }
-//                    //Save previous node in descriptor so we can reattach the 
-//                    //level links when we replace the old node with our new one
-//                    
-//                    //The first thing that must be done is to figure where you
-//                    //are in the tree based on the currentNode. Do I need to 
-//                    //go up one level or continue on the current level?
-//                    if(t.status.get().currentNode.getParent() != null)
-//                    {
-//                        if(t.status.get().currentNode.getNeighbor() == null)
-//                        {
-//                            
-//                        }
-//                    }
-//                    else
-//                    {
-//                        //DescStatus newStatus = new DescStatus(DescStatus.StatusType.DONE);
-//                        
-//                        if(t.status.compareAndSet(t.status.get(), newStatus))
-//                        {
-//                            
-//                        }
-//                    }
-                    
-                    if(t.status.compareAndSet(t.status.get(), newStatus))
-                    {
-
-                    }
-                }
-                else if(t.status.get().stage == DescStatus.StatusType.LINK)
-                {
-                    OTree_Node previousNode = (OTree_Node)t.status.get().previousNode;
-                    OTree_Node currentNode = (OTree_Node)t.status.get().currentNode;
-                    OTree_Node parent = (OTree_Node)t.status.get().parent;
-                    int index = t.status.get().index;
-                    
-                    if(previousNode != null)
-                    {
-                        previousNode.setNeighbor(currentNode);
-                    }
-                    
-                    if(currentNode.getNeighbor() != null)
-                    {
-                        currentNode.setPrevNeighbor(currentNode);
-                    }
-                    
-                    currentNode.setParent(parent);
-                    
-                    if(parent != null)
-                    {
-                        parent.setChild(index, currentNode);
-                    }
-                    //Attach proposed subtree that created during the NEW or 
-                    //OPEN phase
-                    DescStatus newStatus;
-                                        
-                    if(parent == null)
-                    {
-                        newStatus = new DescStatus(DescStatus.StatusType.DONE);
-
-                    }
-                    else
-                    {
-                        newStatus = new DescStatus(DescStatus.StatusType.OPEN);
-                        newStatus.unassigned = t.status.get().unassigned;
-
-                    }
-                    
-                    /*
-                     * Needs More Stuff
-                     */
-                    if(t.status.compareAndSet(t.status.get(), newStatus))
-                    {
-                        newStatus.previousNode = newStatus.currentNode;
-                        newStatus.currentNode = newStatus.currentNode.getNeighbor();
-                    }
-                }
-            };
-            
-            root = (OTree_Node)t.status.get().currentNode;
-            
+            return tempNode;
         }
         
-        public synchronized void newInsert(byte[] value, int i, Signature signer)
-        {
-            Random this_rnd = rndSrc.get();
-            i = i - 1;
-            Vector<OTree_Elem> treeNodes = new Vector<OTree_Elem>();
-            OTree_Leaf ithLeaf = (OTree_Leaf)treeNodes.get(i);
-            OTree_Leaf newLeaf = new OTree_Leaf();
-            OTree_Node ithParent = (OTree_Node)ithLeaf.getParent();
-            OTree_Node currentNode, newNode, newRoot, neighbor;
-            int w, randomDegree, oldDegree;
-            
-            newLeaf.setSig(value);            
-            ithParent.addChild(newLeaf);
-            newLeaf.setParent(ithParent);
-            treeNodes.add(i, newLeaf);
-            
-            randomDegree = (this_rnd.nextBoolean()) ? 2 : 3;
-            
-            /*
-             * The algorithm keeps going up level by level until we pass the
-             * root, at which point we stop
-             */
-            while(ithParent.getParent() != null)
-            {
-                ithParent = (OTree_Node)ithParent.getParent();
-                currentNode = ithParent;
-                
-                if(ithParent.getNeighbor() == null)
-                {
-                    /*
-                     * If the node has no neighbor, then it is a node on the right
-                     * spine, which means we treat it as a 'special case'.
-                     */
-                    if(ithParent.getDegree() == 2 || (ithParent.getDegree() == 3 && randomDegree == 3))
-                    {
-                        newNode = new OTree_Node();
-                        newRoot = new OTree_Node();
-                        
-                        root.setNeighbor(newNode);
-                        newNode.addChild(root.getChild(root.getDegree() - 1));
-                        root.getChild(root.getDegree() - 1).setParent(newNode);
-                        root.removeChild(root.getDegree() - 1);
-                        
-                        newRoot.addChild(root);
-                        newRoot.addChild(newNode);
-                        root.setParent(newRoot);
-                        newNode.setParent(newRoot);
-                        root = newRoot;
-                        
-                        /*
-                         * According to the Structural Agreement lemma, we're 
-                         * finished because all nodes are accounted for. We just
-                         * need to update the size information along the path
-                         * from the leaf to the root.
-                         */
-                    }
-                    
-                }
-                else
-                {
-                    w = 1;
-                    
-                    while(w > 0)
-                    {
-                        randomDegree = (this_rnd.nextBoolean()) ? 2 : 3;
-                        
-                        if(randomDegree == w || currentNode.getNeighbor() == null)
-                        {
-                            /*
-                             * If you've hit the end of the level and you still
-                             * have nodes accounted for, then you need to create
-                             * a new node and attach any outstanding nodes to 
-                             * it as its children. This effectively increases 
-                             * the 'span' of the level by 1.
-                             */
-                            newNode = new OTree_Node();
-                            currentNode.setNeighbor(newNode);
-                            
-                            for(int migrate = 0; migrate < w; migrate++)
-                            {
-                                newNode.addChild(currentNode.getChild(currentNode.getDegree() - 1));
-                                currentNode.getChild(currentNode.getDegree() - 1).setParent(newNode);
-                                currentNode.removeChild(currentNode.getDegree() - 1);
-                            }
-                            
-                            w = 0;
-                        }
-                        else
-                        {
-                            neighbor = (OTree_Node)currentNode.getNeighbor();
-                            /*
-                             * randomDegree, in this case, is equivalent to a 
-                             * newDegree for the node.
-                             */
-                            //randomDegree = (rndSrc.nextBoolean()) ? 2 : 3;
-                            oldDegree = neighbor.getDegree();
-                            
-                            for(int migrate = 0; migrate < w; migrate++)
-                            {
-                                neighbor.addChild(currentNode.getChild(currentNode.getDegree() - 1));
-                                currentNode.getChild(currentNode.getDegree() - 1).setParent(neighbor);
-                                currentNode.removeChild(currentNode.getDegree() - 1);
-                            }
-                            
-                            /*
-                             * Take the original degree of the node, add however
-                             * many nodes you added to it, and subtract it by 
-                             * its new degree. If this is 0, then all nodes are 
-                             * accounted for (AT THAT LEVEL).
-                             * 
-                             * Ex: If the node originally had degree 3, and you
-                             * roll a new degree of 3, then you'll wind up with
-                             * an extra node floating around. So you have to 
-                             * keep going.
-                             */                        
-                            w = java.lang.Math.max(0, ((oldDegree + w) - randomDegree));
-                            currentNode = neighbor;                            
-                        }                                                
-                    }
-                }
-            }            
-        } //*/
-        //
-        public synchronized void newDelete(int i)
-        {
-            Random this_rnd = rndSrc.get();
-            i = i - 1;
-            Vector<OTree_Elem> treeNodes = new Vector<OTree_Elem>();
-            OTree_Elem ithChild = treeNodes.get(i);
-            OTree_Elem[] ithParentChildren;
-            OTree_Node ithParent = (OTree_Node)ithChild.getParent();
-            OTree_Node currentNode, newNode, newRoot, neighbor;
-            int w, randomDegree, oldDegree;                        
-            
-            while(ithParent.getParent() != null)
-            {
-                currentNode = ithParent;
-                ithParentChildren = ithParent.getChildren();
-                
-                for(int match = 0; match < ithParentChildren.length; i++)
-                {
-                    if(ithChild == ithParentChildren[i])
-                    {
-                        ithParent.removeChild(i);
-                        break;
-                    }
-                }
-                
-                if(ithParent.getNeighbor() == null)
-                {
-                    if(!(ithParent.getDegree() < 1))
-                    {
-                        root = (OTree_Node)ithParent.getChild(0);
-                    }
-                }
-                else
-                {                    
-                    w = 1;
-                    
-                    while(w > 0)
-                    {
-                        randomDegree = (this_rnd.nextBoolean()) ? 2 : 3;
-                        neighbor = (OTree_Node)currentNode.getNeighbor();
-                        oldDegree = neighbor.getDegree();
-                        
-                        if(w >= oldDegree)
-                        {
-                            OTree_Elem[] neighborChildren = neighbor.getChildren();
-                            
-                            for(int migrate = 0; migrate < neighborChildren.length; migrate++)
-                            {
-                                currentNode.addChild(neighborChildren[i]);
-                                neighborChildren[i].setParent(currentNode);
-                                neighbor.removeChild(0);
-                            }
-                            
-                            w = 0;
-                        }
-                        else
-                        {
-                            for(int migrate = 0; migrate < w; migrate++)
-                            {
-                                currentNode.addChild(neighbor.getChild(0));
-                                neighbor.getChild(0).setParent(currentNode);
-                                neighbor.removeChild(0);
-                            }
-                            
-                            w = randomDegree - oldDegree + w;
-                        }
-                    }
-                }
-                
-                ithChild = ithParent;
-                ithParent = (OTree_Node)ithParent.getParent();
-            }
-            
-        }//*/
+	// Cooperative Operations
+	/* Inserts and deletes are carried out a level at a time by every thread
+	 * that finds the task in curTask. A step never changes a node any other
+	 * thread can reach: the replacement parents for a level are built and
+	 * signed privately and offered by a CAS on the task status (NEW/OPEN to
+	 * LINK), only one offer wins. The winning parents are then linked in by
+	 * CAS on the parent pointers of their children (LINK to OPEN or DONE),
+	 * which is safe to repeat since a node's parent only ever moves on to a
+	 * newly built node. The root is swung to a new node at the very end, so
+	 * anyone reading down from the root sees either the old or the new tree.
+	 * A batch of operations is applied to the leaves at once and then works
+	 * up as several spans, which merge where their paths meet, so shared
+	 * nodes up to the root are only rebuilt and re-signed once per batch.
+	 */
+	/** take one step of given insert, delete or batch task on behalf of its owner.
+	 *  @param t task to help, assumed to be curTask
+	 *  @param signer signature of helping thread for signing new nodes
+	 */
+	private void helpTask(TaskDesc t, Signature signer){
+		DescStatus now = t.status.get();
+		DescStatus next;
+		try {
+			switch (now.stage){
+				case NEW:
+					next = beginBatch((t.operation == TaskDesc.OpType.BATCH) ? t.batch : Collections.singletonList(t), signer);
+					break;
+				case OPEN:
+					next = offerLevel(now.level, copySpans(now.spans), now.oldRoot, signer);
+					break;
+				case LINK:
+					next = linkLevel(now);
+					break;
+				default:
+					return;
+			}
+		} catch (RuntimeException e){
+			if (t.status.get() != now){
+				// others took the step meanwhile, so this view was stale
+				return;
+			}
+			// step itself failed, finish task with the error so the queue moves on
+			next = new DescStatus(DescStatus.StatusType.DONE);
+			next.error = e;
+		}
+		if (now.stage != DescStatus.StatusType.NEW){
+			// carry rejected deletes along to the DONE status their owners read
+			next.rejected = now.rejected;
+		}
+		if (t.status.compareAndSet(now, next) && next.stage == DescStatus.StatusType.DONE){
+			// let owner return
+			LockSupport.unpark(t.owner);
+		}
+	}
+	/** first step of a task, apply each insert and delete in order to child
+	 *  lists of the leaf parents they touch, then regroup those lists.
+	 *  Indices are taken as of the operations before them, inserts are
+	 *  clamped to [0,size]. Deletes out of range are left out, and unless
+	 *  clamped are listed as rejected so their owners throw.
+	 *  @param ops insert and delete tasks in order
+	 *  @param signer signature for signing new nodes
+	 *  @return status offering new parents of leaf level, DONE if nothing changed
+	 */
+	private DescStatus beginBatch(List<TaskDesc> ops, Signature signer){
+		OTree_Node oldRoot = this.root;
+		// touched leaf parents in level order, where their leaves start and their changed children
+		ArrayList<OTree_Elem> parents = new ArrayList<OTree_Elem>();
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		ArrayList<ArrayList<OTree_Elem>> kids = new ArrayList<ArrayList<OTree_Elem>>();
+		ArrayList<TaskDesc> rejected = new ArrayList<TaskDesc>();
+		int count = oldRoot.getLeafCnt();
+		// batches queued by insertAll or deleteRange may be combined with others
+		ArrayList<TaskDesc> flat = new ArrayList<TaskDesc>();
+		for (TaskDesc op : ops){
+			if (op.operation == TaskDesc.OpType.BATCH){
+				flat.addAll(op.batch);
+			} else {
+				flat.add(op);
+			}
+		}
+		for (TaskDesc op : flat){
+			if (op.operation == TaskDesc.OpType.INSERT){
+				OTree_Leaf newLeaf = new OTree_Leaf();
+				newLeaf.setSig(op.data.get().get(), this.sigArena);
+				int i = Math.max(0, Math.min(op.index, count));
+				if (count == 0){
+					// no leaves left, hang from first touched parent (or empty root)
+					if (parents.isEmpty()){
+						parents.add(oldRoot);
+						starts.add(0);
+						kids.add(new ArrayList<OTree_Elem>());
+					}
+					kids.get(0).add(newLeaf);
+				} else {
+					// insert before leaf at i, or after last leaf if appending
+					int[] at = locate((i < count) ? i : count-1, parents, starts, kids);
+					kids.get(at[0]).add(at[1] + ((i < count) ? 0 : 1), newLeaf);
+				}
+				count++;
+			} else if (op.operation == TaskDesc.OpType.DELETE){
+				if (op.index < 0 || op.index >= count){
+					if (!op.clamp){
+						rejected.add(op);
+					}
+					continue;
+				}
+				int[] at = locate(op.index, parents, starts, kids);
+				kids.get(at[0]).remove(at[1]);
+				count--;
+			}
+		}
+		if (parents.isEmpty()){
+			// nothing to do
+			DescStatus done = new DescStatus(DescStatus.StatusType.DONE);
+			done.rejected = rejected;
+			return done;
+		}
+		// touched parents next to each other on the level make one span
+		ArrayList<DescStatus.Span> spans = new ArrayList<DescStatus.Span>();
+		DescStatus.Span span = null;
+		for (int k=0; k<parents.size(); k++){
+			if (span == null || starts.get(k) != starts.get(k-1) + parents.get(k-1).getLeafCnt()){
+				span = new DescStatus.Span();
+				span.nodes = new ArrayList<OTree_Elem>();
+				span.run = new ArrayList<OTree_Elem>();
+				spans.add(span);
+			}
+			span.nodes.addAll(kids.get(k));
+			span.run.add(parents.get(k));
+		}
+		DescStatus next = offerLevel(0, spans, oldRoot, signer);
+		next.rejected = rejected;
+		return next;
+	}
+	/** find where the leaf at i (counting changes made so far) sits, adding
+	 *  its parent to the touched parents if it was not already.
+	 *  @param i index of leaf, in range
+	 *  @param parents touched leaf parents in level order
+	 *  @param starts index of first leaf of each touched parent before changes
+	 *  @param kids changed children of each touched parent
+	 *  @return {position of parent in touched parents, position of leaf in its kids}
+	 */
+	private int[] locate(int i, ArrayList<OTree_Elem> parents, ArrayList<Integer> starts, ArrayList<ArrayList<OTree_Elem>> kids){
+		int shift = 0;	// leaves gained (or lost) by touched parents before i
+		int k;
+		for (k=0; k<parents.size(); k++){
+			int start = starts.get(k) + shift;
+			if (i < start){
+				break;
+			}
+			if (i < start + kids.get(k).size()){
+				return new int[] {k, i - start};
+			}
+			shift += kids.get(k).size() - parents.get(k).getDegree();
+		}
+		// leaf is in untouched stretch so unchanged by this batch
+		OTree_Elem leaf = getNode(i - shift);
+		OTree_Elem parent = leaf.getParent();
+		ArrayList<OTree_Elem> children = new ArrayList<OTree_Elem>(Arrays.asList(parent.getChildren()));
+		parents.add(k, parent);
+		starts.add(k, i - shift - children.indexOf(leaf));
+		kids.add(k, children);
+		return new int[] {k, children.indexOf(leaf)};
+	}
+	/** group nodes of each span under new parents with random degrees 2 or 3.
+	 *  The grouping must end on the boundary of an old parent, so while a group
+	 *  runs past the nodes on hand the run of old parents being replaced is
+	 *  extended by its level neighbor, taking in the following span if that is
+	 *  where the neighbor belongs. Spans are modified.
+	 *  @param level level of nodes being grouped, leaves are level 0
+	 *  @param spans stretches of level in order, nodes are children of the run after change
+	 *  @param oldRoot root when task began
+	 *  @param signer signature for signing new nodes
+	 *  @return status offering new parents to be linked
+	 */
+	private DescStatus offerLevel(int level, ArrayList<DescStatus.Span> spans, OTree_Node oldRoot, Signature signer){
+		Random rnd = rndSrc.get();
+		for (int s=0; s<spans.size(); s++){
+			DescStatus.Span span = spans.get(s);
+			List<OTree_Elem> nodes = span.nodes;
+			List<OTree_Elem> run = span.run;
+			boolean top = run.isEmpty() || run.get(0).getParent() == null;
+			ArrayList<OTree_Elem> offer = new ArrayList<OTree_Elem>();
+			ArrayList<OTree_Elem> expect = new ArrayList<OTree_Elem>();
+			if (top && level > 0 && nodes.size() == 1){
+				// single node left on top is the root, copied so a root is never reused
+				OTree_Elem only = nodes.get(0);
+				OTree_Node newNode = new OTree_Node();
+				for (OTree_Elem c : only.getChildren()){
+					newNode.addChild(c);
+					expect.add(c.getParent());
+				}
+				newNode.calcLeafCnt();
+				newNode.setSig(only.getSig(), this.sigArena);
+				offer.add(newNode);
+			} else {
+				int i = 0;
+				while (i < nodes.size()){
+					int degree = (rnd.nextBoolean()) ? 2 : 3;
+					// extend run until group fits, or cut group short at end of level
+					while (nodes.size() - i < degree){
+						OTree_Node neighbor = (run.isEmpty()) ? null : getNeighbor((OTree_Node) run.get(run.size()-1), 0);
+						if (neighbor == null){
+							degree = nodes.size() - i;
+							break;
+						}
+						if (s+1 < spans.size() && spans.get(s+1).run.indexOf(neighbor) > 0){
+							// run must end at or before the next one starts
+							throw new IllegalStateException("spans out of order at level "+level);
+						}
+						if (s+1 < spans.size() && spans.get(s+1).run.get(0) == neighbor){
+							// ran into next span, carry on with it as one
+							DescStatus.Span after = spans.remove(s+1);
+							run.addAll(after.run);
+							nodes.addAll(after.nodes);
+						} else {
+							run.add(neighbor);
+							nodes.addAll(Arrays.asList(neighbor.getChildren()));
+						}
+					}
+					// build and sign new parent, remembering who the children hang from now
+					OTree_Node newNode = new OTree_Node();
+					for (int j=0; j<degree; j++){
+						OTree_Elem c = nodes.get(i++);
+						newNode.addChild(c);
+						expect.add(c.getParent());
+					}
+					newNode.calcLeafCnt();
+					updateSig(newNode, signer, this.sigArena);
+					offer.add(newNode);
+				}
+			}
+			span.nodes = offer;
+			span.expect = expect;
+		}
+		DescStatus next = new DescStatus(DescStatus.StatusType.LINK);
+		next.level = level;
+		next.spans = spans;
+		next.oldRoot = oldRoot;
+		return next;
+	}
+	/** link offered parents in as parents of their children, then either swing
+	 *  root or open the next level up: for each span the old grandparents of
+	 *  its run with the run swapped for the new parents. Spans sharing a
+	 *  grandparent become one.
+	 *  @param now LINK status with winning offer
+	 *  @return status for next level, DONE if root has been replaced
+	 */
+	private DescStatus linkLevel(DescStatus now){
+		// hang children from new parents, fails harmlessly if already done
+		for (DescStatus.Span span : now.spans){
+			int k = 0;
+			for (OTree_Elem n : span.nodes){
+				for (int j=0; j<n.getDegree(); j++){
+					n.getChild(j).casParent(span.expect.get(k++), n);
+				}
+			}
+		}
+		DescStatus next = new DescStatus(DescStatus.StatusType.OPEN);
+		next.level = now.level + 1;
+		next.oldRoot = now.oldRoot;
+		next.spans = new ArrayList<DescStatus.Span>();
+		DescStatus.Span first = now.spans.get(0);
+		if (first.run.isEmpty() || first.run.get(0).getParent() == null){
+			// replaced the top of the tree, only ever one span here
+			if (first.nodes.size() <= 1){
+				OTree_Node newRoot = (first.nodes.isEmpty()) ? new OTree_Node() : (OTree_Node) first.nodes.get(0);
+				ROOT.compareAndSet(this, now.oldRoot, newRoot);
+				return new DescStatus(DescStatus.StatusType.DONE);
+			}
+			// too many to be root, group them above
+			DescStatus.Span span = new DescStatus.Span();
+			span.nodes = new ArrayList<OTree_Elem>(first.nodes);
+			span.run = new ArrayList<OTree_Elem>();
+			next.spans.add(span);
+			return next;
+		}
+		// old grandparents spanning each run, merging spans that share one
+		ArrayList<List<DescStatus.Span>> merged = new ArrayList<List<DescStatus.Span>>();
+		DescStatus.Span span = null;
+		for (DescStatus.Span s : now.spans){
+			OTree_Node g = (OTree_Node) s.run.get(0).getParent();
+			OTree_Node last = (OTree_Node) s.run.get(s.run.size()-1).getParent();
+			if (span != null && span.run.get(span.run.size()-1) == g){
+				merged.get(merged.size()-1).add(s);
+			} else {
+				span = new DescStatus.Span();
+				span.run = new ArrayList<OTree_Elem>();
+				span.run.add(g);
+				next.spans.add(span);
+				merged.add(new ArrayList<DescStatus.Span>());
+				merged.get(merged.size()-1).add(s);
+			}
+			// run is a contiguous stretch, so its parents are too and number no more than it
+			for (int k=1; g != last; k++){
+				g = getNeighbor(g, 0);
+				if (g == null || k >= s.run.size()){
+					throw new IllegalStateException("run of span not contiguous at level "+now.level);
+				}
+				span.run.add(g);
+			}
+		}
+		// their children with each run replaced by its new parents
+		for (int m=0; m<next.spans.size(); m++){
+			IdentityHashMap<OTree_Elem, List<OTree_Elem>> replaced = new IdentityHashMap<OTree_Elem, List<OTree_Elem>>();
+			for (DescStatus.Span s : merged.get(m)){
+				for (OTree_Elem p : s.run){
+					replaced.put(p, null);
+				}
+				replaced.put(s.run.get(0), s.nodes);
+			}
+			span = next.spans.get(m);
+			span.nodes = new ArrayList<OTree_Elem>();
+			for (OTree_Elem g : span.run){
+				for (OTree_Elem c : g.getChildren()){
+					if (!replaced.containsKey(c)){
+						span.nodes.add(c);
+					} else if (replaced.get(c) != null){
+						span.nodes.addAll(replaced.get(c));
+					}
+				}
+			}
+		}
+		return next;
+	}
+	/** @return copy of spans whose node and run lists may be changed freely
+	 */
+	private static ArrayList<DescStatus.Span> copySpans(List<DescStatus.Span> spans){
+		ArrayList<DescStatus.Span> tmp = new ArrayList<DescStatus.Span>();
+		for (DescStatus.Span s : spans){
+			DescStatus.Span c = new DescStatus.Span();
+			c.nodes = new ArrayList<OTree_Elem>(s.nodes);
+			c.run = new ArrayList<OTree_Elem>(s.run);
+			tmp.add(c);
+		}
+		return tmp;
+	}
 	
 	/** 
          *  Insert acts a front end for the actual insert function. Insert()
-         *  appends a new Insert task into the Task Queue
+         *  appends a new Insert task into the Task Queue, then helps complete
+         *  queued tasks until its own has been applied.
 	 *  @param value value to be inserted
 	 *  @param i index of chunk/leaf to insert into
-         *  @param Signature Object
+         *  @param Signature Object, one per calling thread (all with same key)
 	 *  @return void
 	 */
 	public void insert(byte[] value, int i, Signature signer)
 	{
                 byte[] signedValue = {127,127,127,0};
+                signer = localSigner(signer);
                 TaskDesc task_descriptor = new TaskDesc(TaskDesc.OpType.INSERT);
                 
                 task_descriptor.index = i;
                 task_descriptor.sig = signer;
+                task_descriptor.owner = Thread.currentThread();
                 task_descriptor.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
                 
                 try
@@ -750,21 +922,143 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
                 }
                 
                 task_descriptor.data = new AtomicReference<ByteArrayWrapper>(new ByteArrayWrapper(signedValue));
-                taskQueue.add(task_descriptor);                                     
+                taskQueue.add(task_descriptor);
+                processQueue(task_descriptor, signer);
         }
 	//
         /**
          * Delete acts as a front end for the actual delete function. Delete()
-         * appends a new Delete task into the Task Queue
+         * appends a new Delete task into the Task Queue, then helps complete
+         * queued tasks until its own has been applied.
          * @param int i
-         * @param Signature signer 
+         * @param Signature signer, one per calling thread (all with same key)
+         * @throws IndexOutOfBoundsException if there is no leaf i when applied
          */
         public void delete(int i, Signature signer)
         {
+            signer = localSigner(signer);
             TaskDesc task_descriptor = new TaskDesc(TaskDesc.OpType.DELETE);
+            task_descriptor.index = i;
+            task_descriptor.sig = signer;
+            task_descriptor.owner = Thread.currentThread();
             task_descriptor.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
             taskQueue.add(task_descriptor);
+            processQueue(task_descriptor, signer);
 	} //*/
+	/** Inserts chunks as consecutive leaves starting at i. Queued as a single
+	 *  BATCH task, so the span is regrouped and signed up to the root once.
+	 *  @param i index of leaf first chunk is inserted at
+	 *  @param chunks values to be inserted, in order
+	 *  @param signer signature, one per calling thread (all with same key)
+	 *  @throws SignatureException if a chunk cannot be signed, nothing is queued
+	 */
+	public void insertAll(int i, List<byte[]> chunks, Signature signer) throws SignatureException{
+		signer = localSigner(signer);
+		ArrayList<TaskDesc> ops = new ArrayList<TaskDesc>();
+		for (byte[] value : chunks){
+			TaskDesc op = new TaskDesc(TaskDesc.OpType.INSERT);
+			op.index = i++;
+			op.sig = signer;
+			op.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
+			signer.update(value);
+			op.data = new AtomicReference<ByteArrayWrapper>(new ByteArrayWrapper(signer.sign()));
+			ops.add(op);
+		}
+		submitBatch(ops, signer);
+	}
+	/** Deletes leaves from index from (inclusive) to index to (exclusive),
+	 *  clamped to the leaves present. Queued as a single BATCH task, so the
+	 *  span is regrouped and signed up to the root once.
+	 *  @param from index of first leaf to delete
+	 *  @param to index after last leaf to delete
+	 *  @param signer signature, one per calling thread (all with same key)
+	 */
+	public void deleteRange(int from, int to, Signature signer){
+		signer = localSigner(signer);
+		ArrayList<TaskDesc> ops = new ArrayList<TaskDesc>();
+		// clamp to leaves present now, ops are clamped again when applied
+		from = Math.max(from, 0);
+		to = Math.min(to, getSize());
+		// each delete shifts the rest of the range down onto from
+		for (int i=from; i<to; i++){
+			TaskDesc op = new TaskDesc(TaskDesc.OpType.DELETE);
+			op.index = from;
+			op.clamp = true;
+			op.sig = signer;
+			op.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
+			ops.add(op);
+		}
+		submitBatch(ops, signer);
+	}
+	/** Store signatures of the nodes of this tree in the given off-heap arena
+	 *  rather than in a byte[] per node. Nodes already in the tree are moved
+	 *  into the arena now, later ones are stored there as they are signed.
+	 *  Signatures too long for a slot stay on heap. Trees may share an arena.
+	 *  Not to be called while other threads use the tree.
+	 *  @param arena arena to store signatures in, null to go back to heap
+	 */
+	public void setSigArena(SigArena arena){
+		this.sigArena = arena;
+		moveSigRecurse(this.root, arena);
+	}
+	/** @return arena node signatures of this tree are stored in, null if on heap
+	 */
+	public SigArena getSigArena(){
+		return this.sigArena;
+	}
+	/** move signatures of subtree into given arena, or onto heap
+	 *  @param e root of subtree
+	 *  @param arena arena to store signatures in, null for heap
+	 */
+	private static void moveSigRecurse(OTree_Elem e, SigArena arena){
+		e.moveSig(arena);
+		for (int i=0; i<e.getDegree(); i++){
+			moveSigRecurse(e.getChild(i), arena);
+		}
+	}
+	/** Sets pool of per-thread signing Signatures. While set, inserts and
+	 *  deletes sign with the calling thread's Signature from the pool rather
+	 *  than the one passed in, so threads may safely share one Signature.
+	 *  @param pool pool of signing Signatures with same key as tree, null to
+	 *  sign with the Signature passed in
+	 */
+	public void setSignerPool(SignaturePool pool){
+		this.signers = pool;
+	}
+	/** @return pool of per-thread signing Signatures, null if none
+	 */
+	public SignaturePool getSignerPool(){
+		return this.signers;
+	}
+	/** Signature the calling thread signs with, its own from the pool if
+	 *  set, otherwise the one it passed in.
+	 *  @param signer signature passed in by calling thread
+	 *  @return signature for calling thread to sign with
+	 */
+	private Signature localSigner(Signature signer){
+		SignaturePool pool = this.signers;
+		if (pool == null){
+			return signer;
+		}
+		Signature tmp = pool.get();
+		return (tmp == null) ? signer : tmp;
+	}
+	/** queue given tasks as one BATCH task and help until it is done.
+	 *  @param ops insert and delete tasks in order
+	 *  @param signer signature of calling thread
+	 */
+	private void submitBatch(List<TaskDesc> ops, Signature signer){
+		if (ops.isEmpty()){
+			return;
+		}
+		TaskDesc task_descriptor = new TaskDesc(TaskDesc.OpType.BATCH);
+		task_descriptor.batch = ops;
+		task_descriptor.sig = signer;
+		task_descriptor.owner = Thread.currentThread();
+		task_descriptor.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
+		taskQueue.add(task_descriptor);
+		processQueue(task_descriptor, signer);
+	}
         
         
         /**
@@ -775,7 +1069,7 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
          * @param int level
          * @return OTree_Node neighbor
          */
-        private synchronized OTree_Node getNeighbor(OTree_Node node, int level)
+        private OTree_Node getNeighbor(OTree_Node node, int level)
         {
             OTree_Node parent = (OTree_Node)node.getParent();
             OTree_Node previous = node;
@@ -877,15 +1171,16 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 	  * make sure that the collection returns elements such that children will be processed before their parent
 	  * @param l collection that holds nodes to be updated (children first)
 	  * @param signer signature for signing must be initialized for signing
+	  * @param arena arena of tree to store signatures in, null for heap
 	  * @return true if successful, false if failure
 	  */
 	@SuppressWarnings("unused")
-	private static boolean updateSig(Collection<OTree_Elem> l, Signature signer){
+	private static boolean updateSig(Collection<OTree_Elem> l, Signature signer, SigArena arena){
 		// for node each in collection
 		for (OTree_Elem n : l){
 			// run update on this node
 			// return false if failed
-			if (!updateSig(n,signer)){
+			if (!updateSig(n, signer, arena)){
 				return false;
 			}
 		}
@@ -896,20 +1191,26 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 	  * Method designed to operate only on internal nodes.
 	  * @param n OTree_Elem (that has children)
 	  * @param signer signature for signing must be initialized for signing
+	  * @param arena arena of tree to store signature in, null for heap
 	  * @return true if successful, false if failure
 	  */
-	private static boolean updateSig(OTree_Elem n, Signature signer){
+	private static boolean updateSig(OTree_Elem n, Signature signer, SigArena arena){
 		try {
-			// get children set
-			OTree_Elem[] C = n.getChildren();
 			// if has children
-			if (C != null && C.length>0){
-				// compile signature from children from left to right. 
-				for (OTree_Elem c : C){
-					signer.update(c.getSig());
+			if (n.getDegree() > 0){
+				// compile signature from children from left to right, gathered in place
+				int size = 0;
+				for (int i=0; i<n.getDegree(); i++){
+					size += n.getChild(i).getSigLength();
 				}
+				byte[] buf = ObliviousTree.sigScratch(size);
+				int off = 0;
+				for (int i=0; i<n.getDegree(); i++){
+					off += n.getChild(i).getSig(buf, off);
+				}
+				signer.update(buf, 0, off);
 				// finish signature computation at set into this node
-				n.setSig(signer.sign());
+				n.setSig(signer.sign(), arena);
 			}
 			return true;
 		} catch (SignatureException e) {
@@ -962,19 +1263,157 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		}
 	}
 	public synchronized boolean verifyTree(Signature verifier){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
 		return verifyTree(this.root, verifier);
 	}
+	/** Check only the nodes signed since the last call (or since the tree was
+	 *  built), O(changes x height) rather than a full verifyTree. A change
+	 *  copies every node on its path up to a new root, which is signed last,
+	 *  and changes are applied one at a time, so every internal node signed
+	 *  after the last root checked is reached from the root through others.
+	 *  @param verifier signature to be used to check
+	 *  @return true if valid, false if invalid
+	 */
+	public synchronized boolean verifyWrites(Signature verifier){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		OTree_Node r = this.root;
+		boolean valid = verifyWritesRecurse(r, this.verifiedTo, verifier);
+		if (valid){
+			this.verifiedTo = Math.max(this.verifiedTo, r.getStamp());
+		}
+		return valid;
+	}
+	public byte[] getRootSig(){
+		return this.root.getSig();
+	}
+	public byte[] chunkProof(int i){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		OTree_Elem e = this.root;
+		if (i < 0 || i >= e.getLeafCnt()){
+			return null;
+		}
+		// descend by leaf counts, parent pointers may already lead to a newer tree
+		ArrayList<OTree_Elem> path = new ArrayList<OTree_Elem>();
+		ArrayList<Integer> at = new ArrayList<Integer>();
+		while (e.getDegree() > 0){
+			int j = 0;
+			while (i >= e.getChild(j).getLeafCnt() && j < e.getDegree()-1){
+				i -= e.getChild(j).getLeafCnt();
+				j++;
+			}
+			path.add(e);
+			at.add(j);
+			e = e.getChild(j);
+		}
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendInt(0);
+		out.appendInt(path.size());
+		// siblings at each level from leaf up
+		for (int l=path.size()-1; l>=0; l--){
+			OTree_Elem p = path.get(l);
+			byte[][] kids = new byte[p.getDegree()][];
+			for (int j=0; j<kids.length; j++){
+				kids[j] = p.getChild(j).getSig();
+			}
+			ObliviousTree.appendProofLevel(out, kids, at.get(l));
+		}
+		return Arrays.copyOf(out.data, out.index);
+	}
+	public byte[] rangeProof(int from, int to){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		OTree_Elem r = this.root;
+		if (from < 0 || to > r.getLeafCnt() || from >= to){
+			return null;
+		}
+		// nodes on the boundary paths, found by leaf counts from the snapshot
+		IdentityHashMap<OTree_Elem, Boolean> edge = new IdentityHashMap<OTree_Elem, Boolean>();
+		OTree_Elem first = leafPath(r, from, edge);
+		OTree_Elem last = leafPath(r, to-1, edge);
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendInt(0);
+		rangeProofRecurse(r, first, last, edge, new boolean[1], out);
+		return Arrays.copyOf(out.data, out.index);
+	}
+	/** descend from root to ith leaf by leaf counts, noting the nodes passed
+	 *  @param e root of tree
+	 *  @param i index of leaf, must be in tree
+	 *  @param path map to add nodes on path to
+	 *  @return ith leaf
+	 */
+	private static OTree_Elem leafPath(OTree_Elem e, int i, IdentityHashMap<OTree_Elem, Boolean> path){
+		path.put(e, Boolean.TRUE);
+		while (e.getDegree() > 0){
+			int j = 0;
+			while (i >= e.getChild(j).getLeafCnt() && j < e.getDegree()-1){
+				i -= e.getChild(j).getLeafCnt();
+				j++;
+			}
+			e = e.getChild(j);
+			path.put(e, Boolean.TRUE);
+		}
+		return e;
+	}
+	/** helper for rangeProof, output node in preorder, expanded if on a
+	 *  boundary path or inside the range, else by signature alone.
+	 *  @param e node to output
+	 *  @param first leaf at start of range
+	 *  @param last leaf at end of range
+	 *  @param edge nodes on the boundary paths
+	 *  @param inside true once first has been passed until last has been
+	 *  @param out ByteOutArray to output to
+	 */
+	private static void rangeProofRecurse(OTree_Elem e, OTree_Elem first, OTree_Elem last, IdentityHashMap<OTree_Elem, Boolean> edge, boolean[] inside, ObliviousTree.ByteOutArray out){
+		byte[] sig = e.getSig();
+		out.appendInt(sig.length);
+		out.append(sig);
+		if (!inside[0] && !edge.containsKey(e)){
+			out.appendInt(-1);
+			return;
+		}
+		out.appendInt(e.getDegree());
+		if (e == first){
+			inside[0] = true;
+		}
+		for (int j=0; j<e.getDegree(); j++){
+			rangeProofRecurse(e.getChild(j), first, last, edge, inside, out);
+		}
+		if (e == last){
+			inside[0] = false;
+		}
+	}
+	/** check node against its children if signed since given stamp, and
+	 *  likewise each child.
+	 *  @return true if valid, false if invalid
+	 */
+	private static boolean verifyWritesRecurse(OTree_Elem e, long since, Signature verifier){
+		if (e.getDegree() == 0 || e.getStamp() <= since){
+			return true;
+		}
+		if (e.getDegree() > MAX_DEGREE || !verifySig(e, verifier)){
+			return false;
+		}
+		for (int i=0; i<e.getDegree(); i++){
+			if (!verifyWritesRecurse(e.getChild(i), since, verifier)){
+				return false;
+			}
+		}
+		return true;
+	}
+	public int[] auditTree(SignatureFactory verifiers, ForkJoinPool pool){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		return pool.invoke(new AuditTask(this.root, new SignaturePool(verifiers), new AtomicBoolean(false)));
+	}
 	/** Function for checking 2-3 oblivious tree structure, recursive version
 	 *  @param verifier signature to be used to check
 	 *  @return true if valid, false if invalid
 	 */
-	private synchronized boolean verifyTree(OTree_Elem e, Signature verifier){
+	private static boolean verifyTree(OTree_Elem e, Signature verifier){
 		// if no children don't continue check - success
-		if (e.getDegree()>0){
+		if (e.getDegree()==0){
 			return true;
 		}
 		// else if to many children - failure
-		else if(e.getDegree()<3){
+		else if(e.getDegree()>MAX_DEGREE){
 			return false;
 		}
 		// check signature for this node
@@ -992,40 +1431,127 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		}
 		return result ; 
 	}
+	/** fork-join task auditing a subtree. Checks its root against its
+	 *  children, then audits each internal child as its own task. Leaves are
+	 *  signed over file chunks the tree does not hold, so are not checked.
+	 */
+	private static class AuditTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final OTree_Elem node;	// root of subtree being audited
+		private final SignaturePool verifiers;	// per worker Signatures
+		private final AtomicBoolean failed;	// set once any node fails
+		
+		public AuditTask(OTree_Elem node, SignaturePool verifiers, AtomicBoolean failed){
+			this.node = node;
+			this.verifiers = verifiers;
+			this.failed = failed;
+		}
+		protected int[] compute(){
+			if (node.getDegree() == 0 || failed.get()){
+				return null;
+			}
+			boolean ok;
+			Signature verifier = verifiers.get();
+			try {
+				if (verifier == null || node.getDegree() > MAX_DEGREE){
+					ok = false;
+				} else {
+					for (int i=0; i<node.getDegree(); i++){
+						verifier.update(node.getChild(i).getSig());
+					}
+					ok = verifier.verify(node.getSig());
+				}
+			} catch (GeneralSecurityException e){
+				ok = false;
+			} catch (RuntimeException e){
+				// node or child unsigned
+				ok = false;
+			}
+			if (!ok){
+				failed.set(true);
+				return new int[0];
+			}
+			// audit children at the same time, report leftmost bad one
+			List<AuditTask> tasks = new ArrayList<AuditTask>();
+			for (int i=0; i<node.getDegree(); i++){
+				tasks.add(new AuditTask(node.getChild(i), verifiers, failed));
+			}
+			invokeAll(tasks);
+			for (int i=0; i<tasks.size(); i++){
+				int[] path = tasks.get(i).join();
+				if (path != null){
+					// prepend position of child
+					int[] tmp = new int[path.length+1];
+					tmp[0] = i;
+					System.arraycopy(path, 0, tmp, 1, path.length);
+					return tmp;
+				}
+			}
+			return null;
+		}
+	}
 	
 	/** generate the signature output of algorithm
 	 * outputs each node in signature as {sig_size}{sig}{degree} in depth-first preorder
 	 *  @return byte[] of current complete signature, null if failure
 	 */
 	public byte[] signatureGenerate(){
-		// Initialize output holder; index at 0, initial size of 128 bytes
-		ObliviousTree.ByteOutArray sig = new ObliviousTree.ByteOutArray(0, 128);
-		ConcurrentObliviousTree.signatureGenerateRecurse(this.root, sig);
-		// return truncated array of just signatures
-		return Arrays.copyOf(sig.data, sig.index);
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		OTree_Node r = this.root;
+		// Initialize output holder; index at 0, exact size of output
+		ObliviousTree.ByteOutArray sig = new ObliviousTree.ByteOutArray(0, Math.max(r.getOutSize(), 1));
+		ConcurrentObliviousTree.signatureGenerateRecurse(r, sig);
+		// exact size unless a node was signed out of order, then truncate
+		return (sig.index == sig.data.length) ? sig.data : Arrays.copyOf(sig.data, sig.index);
 	} //*/
+	public boolean signatureGenerate(WritableByteChannel out) throws IOException{
+		ObliviousTree.ByteOutChannel sig = new ObliviousTree.ByteOutChannel(out);
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		ConcurrentObliviousTree.signatureGenerateRecurse(this.root, sig);
+		sig.flush();
+		return true;
+	}
+	public byte[] signatureGenerate(ForkJoinPool pool){
+		// root is only ever swung to a complete new tree, so one read is a consistent snapshot
+		OTree_Node r = this.root;
+		byte[] out = new byte[r.getOutSize()];
+		AtomicBoolean failed = new AtomicBoolean(false);
+		pool.invoke(new OutputTask(r, out, 0, failed));
+		// sizes out of step with tree, write serially
+		return (failed.get()) ? signatureGenerate() : out;
+	}
+	public byte[] signatureDiff(long since){
+		// read version before root, so nodes of this root signed after version are sent
+		long version = OTree_Elem.currentStamp();
+		OTree_Node r = this.root;
+		if (r.getSig() == null){
+			return null;
+		}
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendLong(version);
+		out.appendInt(0);
+		ConcurrentObliviousTree.signatureDiffRecurse(r, since, out);
+		return Arrays.copyOf(out.data, out.index);
+	}
 	/** recursive function to traverse tree and compile complete signature
 	 *  @param thisNode current node
 	 *  @param sig SignatureArray object holding current state
 	 */
 	private static void signatureGenerateRecurse(OTree_Elem thisNode, ObliviousTree.ByteOutArray sig){
 		ByteBuffer buf = ByteBuffer.allocate(4);	// bytebuffer for doing int to byte[] conversions
-		byte[] tmp;	// temporary array for holding byte rep of each node
+		int len = thisNode.getSigLength();	// length of signature of current node
 		
-		// get byte signature of current node
-		tmp = thisNode.getSig();
 		// fix size to accept this node
-		sig.append(tmp.length+8);
+		sig.append(len+8);
 		// write node into sig data  
 		// prepend with signature size
-		buf.putInt(0, tmp.length);
+		buf.putInt(0, len);
 		// copy signature into sig data
 		System.arraycopy(buf.array(), 0, sig.data, sig.index, 4);
 		buf.clear();
 		sig.index+=4;
-		// copy signature into sig data
-		System.arraycopy(tmp, 0, sig.data, sig.index, tmp.length);
-		sig.index += tmp.length;
+		// copy signature straight into sig data
+		sig.index += thisNode.getSig(sig.data, sig.index);
 		// append with degree
 		buf.putInt(0, thisNode.getDegree());
 		System.arraycopy(buf.array(), 0, sig.data, sig.index, 4);
@@ -1040,24 +1566,150 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		}
 		
 	}
+	/** recursive function to traverse tree and stream complete signature
+	 *  @param thisNode current node
+	 *  @param sig ByteOutChannel output is written through
+	 *  @throws IOException if writing output fails
+	 */
+	private static void signatureGenerateRecurse(OTree_Elem thisNode, ObliviousTree.ByteOutChannel sig) throws IOException{
+		sig.append(thisNode.getSigView(), thisNode.getDegree());
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			signatureGenerateRecurse(thisNode.getChild(i), sig);
+		}
+	}
+	/** recursive function to traverse tree and compile patch since version,
+	 *  only descending into nodes signed after it
+	 *  @param thisNode current node
+	 *  @param since version patch is made since
+	 *  @param out ByteOutArray holding patch
+	 */
+	private static void signatureDiffRecurse(OTree_Elem thisNode, long since, ObliviousTree.ByteOutArray out){
+		byte[] sig = thisNode.getSig();
+		if (thisNode.getStamp() <= since){
+			// unchanged subtree, client has it already
+			out.appendInt(-sig.length);
+			out.append(sig);
+			return;
+		}
+		out.appendInt(sig.length);
+		out.append(sig);
+		out.appendInt(thisNode.getDegree());
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			signatureDiffRecurse(thisNode.getChild(i), since, out);
+		}
+	}
+	/** fork-join task writing the signature output of a subtree into its
+	 *  region of the output array. Each child's region starts where its left
+	 *  sibling's ends, known from subtree output sizes, so siblings are
+	 *  written in parallel. Subtrees of at most SERIAL_SPAN bytes are written
+	 *  by one task. Sets failed if sizes are out of step with the tree.
+	 */
+	private static class OutputTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final OTree_Elem node;	// root of subtree being written
+		private final byte[] out;		// whole output array
+		private final int off;			// offset of subtree in output
+		private final AtomicBoolean failed;	// set if output could not be placed
+		
+		public OutputTask(OTree_Elem node, byte[] out, int off, AtomicBoolean failed){
+			this.node = node;
+			this.out = out;
+			this.off = off;
+			this.failed = failed;
+		}
+		protected void compute(){
+			try {
+				if (node.getOutSize() <= SERIAL_SPAN){
+					if (writeRecurse(node, ByteBuffer.wrap(out), off) != off+node.getOutSize()){
+						failed.set(true);
+					}
+					return;
+				}
+				// write this node, then each child subtree at its own offset
+				byte[] sig = node.getSig();
+				ByteBuffer buf = ByteBuffer.wrap(out);
+				buf.putInt(off, sig.length);
+				System.arraycopy(sig, 0, out, off+4, sig.length);
+				buf.putInt(off+4+sig.length, node.getDegree());
+				int pos = off+8+sig.length;
+				OutputTask[] tasks = new OutputTask[node.getDegree()];
+				for (int i=0; i<tasks.length; i++){
+					OTree_Elem c = node.getChild(i);
+					tasks[i] = new OutputTask(c, out, pos, failed);
+					pos += c.getOutSize();
+				}
+				if (pos != off+node.getOutSize()){
+					failed.set(true);
+					return;
+				}
+				invokeAll(tasks);
+			} catch (RuntimeException e){
+				// node unsigned or region too small
+				failed.set(true);
+			}
+		}
+	}
+	/** recursive function to write signature output of subtree at given offset
+	 *  @param thisNode current node
+	 *  @param buf wrapper of output array
+	 *  @param off offset to write current node at
+	 *  @return offset after end of subtree
+	 */
+	private static int writeRecurse(OTree_Elem thisNode, ByteBuffer buf, int off){
+		int len = thisNode.getSig(buf.array(), off+4);
+		buf.putInt(off, len);
+		buf.putInt(off+4+len, thisNode.getDegree());
+		off += 8+len;
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			off = writeRecurse(thisNode.getChild(i), buf, off);
+		}
+		return off;
+	}
 	
 	// Operation Processors
-	@SuppressWarnings("unused")
-	private void processQueue(TaskDesc t){
+	/** help complete tasks, in queue order, until given task is done. The owner
+	 *  of the current task (the combiner for a batch) drives it, others park
+	 *  while it makes progress and only step in to help when it has not moved
+	 *  since they last looked.
+	 *  @param t task of calling thread
+	 *  @param signer signature of calling thread
+	 *  @throws IndexOutOfBoundsException if t is a delete of no leaf
+	 *  @throws IllegalStateException if a step of the task failed
+	 */
+	private void processQueue(TaskDesc t, Signature signer){
+		DescStatus seen = null;	// status of current task when last looked
+		long park = MIN_PARK;
 		// while my task is still pending
 		while(isPendingTask(t)){
 			// get current task
 			TaskDesc current = this.curTask.get();
+			if (current.owner != Thread.currentThread() && current.operation != TaskDesc.OpType.VOID){
+				DescStatus now = current.status.get();
+				if (now != seen){
+					// progress is being made, stay out of the way
+					seen = now;
+					LockSupport.parkNanos(this, park);
+					park = Math.min(park*2, MAX_PARK);
+					continue;
+				}
+			}
+			park = MIN_PARK;
 			// invoke the correct handler for this task
 			switch (current.operation){
 				case INSERT:
-					processInvoke(t);
+					processInsert(current, signer);
 					break;
 				case DELETE:
-					processDelete(t);
+					processDelete(current, signer);
 					break;
 				case GENSIG:
-					processGenSig(t);
+					processGenSig(current);
+					break;
+				case BATCH:
+					processBatch(current, signer);
 					break;
 				case VOID:
 				default:
@@ -1066,16 +1718,47 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 					break;
 			}
 		}
+		// my task is done, fail back to caller if it was not applied
+		DescStatus done = t.status.get();
+		if (done.error != null){
+			throw new IllegalStateException("update failed", done.error);
+		}
+		if (done.rejected != null && done.rejected.contains(t)){
+			throw new IndexOutOfBoundsException("Index: "+t.index);
+		}
 	}
-	private void processInvoke(TaskDesc t){
-		//this.concurrentInsert(t);          
+	private void processInsert(TaskDesc t, Signature signer){
+		// step task along with whoever else is helping
+		while (t.status.get().stage != DescStatus.StatusType.DONE){
+			helpTask(t, signer);
+		}
+		completeTask(t);
 	}
-	private void processDelete(TaskDesc t){
-		
+	private void processDelete(TaskDesc t, Signature signer){
+		// step task along with whoever else is helping
+		while (t.status.get().stage != DescStatus.StatusType.DONE){
+			helpTask(t, signer);
+		}
+		completeTask(t);
+	}
+	private void processBatch(TaskDesc t, Signature signer){
+		// step batch along with whoever else is helping
+		while (t.status.get().stage != DescStatus.StatusType.DONE){
+			helpTask(t, signer);
+		}
+		// all of batch is now in tree (or failed), release waiting owners
+		DescStatus done = t.status.get();
+		for (TaskDesc member : t.batch){
+			DescStatus now = member.status.get();
+			if (now.stage != DescStatus.StatusType.DONE && member.status.compareAndSet(now, done)){
+				LockSupport.unpark(member.owner);
+			}
+		}
+		completeTask(t);
 	}
 	private void processGenSig(TaskDesc t){
 		DescStatus now = t.status.get();
-		if (now.stage == DescStatus.StatusType.OPEN){
+		if (now.stage == DescStatus.StatusType.NEW || now.stage == DescStatus.StatusType.OPEN){
 			byte[] tmpdata = signatureGenerate();
 			t.data.compareAndSet(null, new ByteArrayWrapper(tmpdata));
 			DescStatus newStat = new DescStatus(DescStatus.StatusType.DONE);
@@ -1085,31 +1768,68 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 	}
 	
 	// Task Queue Management
-	/** Atomically takes the next task from the queue and set curTask pointer
+	/** Atomically takes the pending tasks from the queue and set curTask pointer
 	 *  (the task all threads are to to assist completing). Queue is the shared 
 	 *  list of all pending operations to the oblivious tree. Requires that a 
-	 *  VOID task currently be in the curTask slot (indicating the previous 
-	 *  task was completed). Can fail if queue is empty, curTask is not void or
-	 *  another thread succeeds setting the head before this one.
+	 *  VOID or DONE task currently be in the curTask slot (indicating the
+	 *  previous task was completed). The thread winning the combiner lock
+	 *  drains up to MAX_BATCH tasks (see drainBatch), more than one are set
+	 *  as a single BATCH task owned by the combiner. Can fail if queue is empty, curTask is not done or another
+	 *  thread holds the combiner lock.
 	 *  @return true if successful, false if failed
 	 */
 	private boolean popTask(){
 		// get current task in queue
 		TaskDesc current = this.curTask.get();
 		// check if task is done or  void type (meaning last task was completed)
-		if (current.status.get().stage == DescStatus.StatusType.DONE || current.operation == TaskDesc.OpType.VOID){
-			// get peek at head of queue
-			TaskDesc head = this.taskQueue.peek();
-			if(head!=null && this.curTask.compareAndSet(current, head)){
-				this.taskQueue.remove(head);
+		if ((current.status.get().stage == DescStatus.StatusType.DONE || current.operation == TaskDesc.OpType.VOID)
+				&& this.combiner.compareAndSet(false, true)){
+			try {
+				// look again under the lock, another combiner may have set a task since
+				current = this.curTask.get();
+				if (current.status.get().stage != DescStatus.StatusType.DONE && current.operation != TaskDesc.OpType.VOID){
+					return false;
+				}
+				// drain queue
+				ArrayList<TaskDesc> drained = drainBatch();
+				if (drained.isEmpty()){
+					return false;
+				}
+				TaskDesc next = drained.get(0);
+				if (drained.size() > 1){
+					next = new TaskDesc(TaskDesc.OpType.BATCH);
+					next.batch = drained;
+					next.owner = Thread.currentThread();
+					next.status = new AtomicReference<DescStatus>(new DescStatus(DescStatus.StatusType.NEW));
+				}
+				// only combiner sets a task, so done current can only be cleared meanwhile
+				while (!this.curTask.compareAndSet(current, next)){
+					current = this.curTask.get();
+				}
+				// wake owner to drive its task
+				LockSupport.unpark(next.owner);
 				return true;
-			} else {
-				return false;
+			} finally {
+				this.combiner.set(false);
 			}
 		} else {
 			return false;
 		}
 	}
+	/** take tasks from head of queue for one batch, up to MAX_BATCH in queue
+	 *  order wherever their leaves are. Tasks far apart make a batch of several
+	 *  spans, linked level by level as one (see offerLevel and linkLevel).
+	 *  Caller holds the combiner lock, the only thread taking from the queue.
+	 *  @return tasks drained in queue order, empty if queue is empty
+	 */
+	private ArrayList<TaskDesc> drainBatch(){
+		ArrayList<TaskDesc> drained = new ArrayList<TaskDesc>();
+		TaskDesc head;
+		while (drained.size() < MAX_BATCH && (head = this.taskQueue.poll()) != null){
+			drained.add(head);
+		}
+		return drained;
+	}
 	/** Atomically sets a void TaskDesc into the curTask pointer. Used to clear
 	 *  a completed task from the system and allow all other threads to grab a
 	 *  new task from the queue.
@@ -1144,11 +1864,11 @@ public class ConcurrentObliviousTree extends oblivious.ObliviousTree{
 		}
 	}
 	/** Checks if task is has already been completed by consulting 
-	 *  the current task (curTask) and the task queue (taskQueue).
+	 *  the task's own status, so does not depend on length of queue.
 	 *  @param t Task descriptor being checked
-	 *  @return true if task is curTask or in queue, else false.
+	 *  @return true if task is not yet done, else false.
 	 */
 	private boolean isPendingTask(TaskDesc t){
-		return this.taskQueue.contains(t) || this.curTask.get()==t;
+		return t.status.get().stage != DescStatus.StatusType.DONE;
 	}
 }
@@ -1,6 +1,6 @@
 package oblivious.concurrent;
 
-import java.util.LinkedList;
+import java.util.List;
 
 class DescStatus {
 	protected static enum StatusType { 
@@ -12,13 +12,20 @@ class DescStatus {
 	} 
 
 	// Instance variables
-	int index;
 	protected StatusType stage;
-	protected OTree_Elem parent;
-        protected OTree_Elem leafPath;
-	protected OTree_Elem previousNode;
-	protected OTree_Elem currentNode;
-	protected LinkedList<OTree_Elem> unassigned;
+	protected int level;	// level being regrouped by this step, leaves are level 0
+	protected List<Span> spans;	// stretches of level being regrouped, in level order
+	protected OTree_Node oldRoot;	// root of tree when task began
+	protected List<TaskDesc> rejected;	// deletes out of range, left out and failed back to their owners
+	protected RuntimeException error;	// DONE: why the task failed, null if it completed
+	
+	/** contiguous stretch of a level being regrouped
+	 */
+	static class Span {
+		protected List<OTree_Elem> nodes;	// OPEN: nodes of level to group, LINK: new parents offered
+		protected List<OTree_Elem> run;	// old parents being replaced, in level order
+		protected List<OTree_Elem> expect;	// LINK: parent of each child of new parents when offered
+	}
 	
 	/** DescStatus default constructor
 	 */
@@ -2,14 +2,24 @@ package oblivious.concurrent;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oblivious.SigArena;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 abstract class OTree_Elem {
 	final static int MAX_CHILDREN = 4;
+	private static final AtomicLong clock = new AtomicLong(0);	// source of signing stamps, increasing
+	private static final AtomicReferenceFieldUpdater<OTree_Elem, OTree_Elem> PARENT =
+			AtomicReferenceFieldUpdater.newUpdater(OTree_Elem.class, OTree_Elem.class, "parent");
 	// Instance properties
-	private OTree_Elem parent;		// parent node in tree
+	private volatile OTree_Elem parent;		// parent node in tree
 	private OTree_Elem neighbor;	// level neighbor. Allows retrieval of neighbor in O(1) time
         private OTree_Elem prev_neighbor;
-	private byte[] sig;				// signature of this node
+	private byte[] sig;				// signature of this node, null if held in arena
+	private SigArena arena;			// arena holding a slot for this node, null if none
+	private int slot;				// slot of this node in arena
+	private long stamp;				// clock value when last signed, 0 if never
 	
 	// Constructors
 	/** OTree_Elem with without parent (root) */
@@ -18,6 +28,9 @@ abstract class OTree_Elem {
 		neighbor = null;
                 prev_neighbor = null;
 		sig = null;
+		arena = null;
+		slot = -1;
+		stamp = 0;
 	}
 	/** OTree_Elem as the child of given node.
 	 *  @param p parent OTree_Elem
@@ -27,19 +40,31 @@ abstract class OTree_Elem {
 		neighbor = null;
                 prev_neighbor = null;
 		sig = null;
+		arena = null;
+		slot = -1;
+		stamp = 0;
 	}
 	
 	// Mutators
-	/** set the the signature for this OTree_Elem
+	/** set the the signature for this OTree_Elem, kept where the current
+	 *  one is (arena slot of this node or heap)
 	 *  @param s signature to be set
 	 *  @return true if successful, false if failure
 	 */
 	public boolean setSig(byte[] s){
+		return setSig(s, this.arena);
+	}
+	/** set the the signature for this OTree_Elem
+	 *  @param s signature to be set
+	 *  @param a arena of tree to store signature in, null to store it on heap
+	 *  @return true if successful, false if failure
+	 */
+	public boolean setSig(byte[] s, SigArena a){
 		// check input array
 		if (s!=null && s.length>0){
 			try {
-				// copy input into sig
-				this.sig = Arrays.copyOf(s, s.length);
+				storeSig(s, a);
+				this.stamp = clock.incrementAndGet();
 			} catch (Exception e){
 				// return false due to exception
 				return false;
@@ -51,6 +76,40 @@ abstract class OTree_Elem {
 			return false;
 		}
 	}
+	/** move signature of this OTree_Elem into given arena, or onto heap,
+	 *  without counting as signed again (stamp is kept).
+	 *  @param a arena to store signature in, null to store it on heap
+	 */
+	void moveSig(SigArena a){
+		if (a != this.arena){
+			byte[] s = getSig();
+			if (s != null){
+				storeSig(s, a);
+			}
+		}
+	}
+	/** store signature into arena slot of this node, allocating one if it
+	 *  has none in given arena, else copy it onto heap.
+	 *  @param s signature to be stored
+	 *  @param a arena to store signature in, null for heap
+	 */
+	private void storeSig(byte[] s, SigArena a){
+		if (a != null && this.arena != a && s.length <= a.getMaxSig()){
+			int n = a.allocate(this);
+			if (n >= 0){
+				this.arena = a;
+				this.slot = n;
+			}
+		}
+		if (a != null && this.arena == a && a.put(this.slot, s)){
+			this.sig = null;
+		} else {
+			// old slot, if any, is freed once this node is collected
+			this.sig = Arrays.copyOf(s, s.length);
+			this.arena = null;
+			this.slot = -1;
+		}
+	}
 	/** Changes the parent node of this node such that it is a child of the given node.
 	 *  @param p new parent OTree_Elem
 	 *  @return true if successful, false if failure
@@ -66,6 +125,19 @@ abstract class OTree_Elem {
 			return false;
 		}
 	}
+	/** performs an atomic compareAndSet of the parent pointer of this node.
+	 *  @param e expected parent
+	 *  @param p new parent OTree_Elem
+	 *  @return true if successful, false if parent was not as expected
+	 */
+	public boolean casParent(OTree_Elem e, OTree_Elem p){
+		return PARENT.compareAndSet(this, e, p);
+	}
+	/** Detaches this node from its parent, such that it may be the root.
+	 */
+	public void clearParent(){
+		this.parent = null;
+	}
 	/** Changes the level neighbor node of this node to the given node, if it exists
 	 * @param n OTree_Elem to be set as neighbor
 	 * @return true if successful, false if failure
@@ -154,17 +226,69 @@ abstract class OTree_Elem {
 				// Return null due to exception
 				return null;
 			}
+		} else if (sig==null && arena!=null){
+			// copy out of arena
+			byte[] tmp = new byte[this.arena.length(this.slot)];
+			this.arena.get(this.slot, tmp, 0);
+			return tmp;
 		} else {
 			// Return null due to sig not being initialized
 			return null;
 		}
 	}
+	/** @return length of signature of this OTree_Elem, 0 if not signed
+	 */
+	public int getSigLength(){
+		if (this.sig != null){
+			return this.sig.length;
+		}
+		return (this.arena != null) ? this.arena.length(this.slot) : 0;
+	}
+	/** copy signature of this OTree_Elem into given array, without
+	 *  allocating a copy of its own.
+	 *  @param dst array to copy into, must have getSigLength() bytes free
+	 *  @param off offset in dst to copy to
+	 *  @return length of signature copied, 0 if not signed
+	 */
+	public int getSig(byte[] dst, int off){
+		if (this.sig != null){
+			System.arraycopy(this.sig, 0, dst, off, this.sig.length);
+			return this.sig.length;
+		}
+		return (this.arena != null) ? this.arena.get(this.slot, dst, off) : 0;
+	}
+	/** @return read only view of signature of this OTree_Elem without
+	 *  copying it, null if not signed. Only valid until this node is re-signed.
+	 */
+	public ByteBuffer getSigView(){
+		if (this.sig != null){
+			return ByteBuffer.wrap(this.sig).asReadOnlyBuffer();
+		}
+		return (this.arena != null) ? this.arena.view(this.slot) : null;
+	}
 	/** @return degree of this node of tree
 	 */
 	public abstract int getDegree();
 	/** @return count of leaf nodes below (or at) this node of the tree
 	 */
 	public abstract int getLeafCnt();
+	/** @return clock value when this node was last signed. A node not signed
+	 *  since a given clock value heads a subtree unchanged since then.
+	 */
+	public long getStamp(){
+		return this.stamp;
+	}
+	/** @return latest clock value handed out to a signed node
+	 */
+	static long currentStamp(){
+		return clock.get();
+	}
+	/** @return bytes of signature output ({sig_size}{sig}{degree} per node)
+	 *  of subtree rooted here, just the record of this node if it has no children
+	 */
+	public int getOutSize(){
+		return 8 + getSigLength();
+	}
 	/** @return parent node of this node, null if has no parent
 	 */
 	public OTree_Elem getParent(){
@@ -239,11 +363,12 @@ abstract class OTree_Elem {
 	 */
 	public byte[] toBytes(){
 		// make byte buffer big enough for integer signature length and whole signature
-		ByteBuffer buf = ByteBuffer.allocate(4+this.sig.length);
+		int len = getSigLength();
+		ByteBuffer buf = ByteBuffer.allocate(4+len);
 		// insert length
-		buf.putInt(this.sig.length);
+		buf.putInt(len);
 		//insert sign
-		buf.put(this.sig);
+		getSig(buf.array(), 4);
 		// return as array (unless improbable error)
 		return (buf.hasArray()) ? buf.array() : null;
 	}
@@ -1,19 +1,17 @@
 package oblivious.concurrent;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 class OTree_Node extends OTree_Elem {
 
 	// Instance Variable
 	private AtomicReferenceArray<OTree_Elem> children;
-	private int childNum;
 	private AtomicInteger degree;
-	private int leafCnt;
+	private volatile int leafCnt;
+	private volatile int outSize;	// bytes of signature output of subtrees of children
 	
 	// Constructors
 	/** Construct OTree_Node with no parent and no children.
@@ -22,9 +20,10 @@ class OTree_Node extends OTree_Elem {
 		super();
 		// initialize children array
 		children = new AtomicReferenceArray<OTree_Elem>(OTree_Elem.MAX_CHILDREN);
-		// set degree and leaf count to zero
+		// set degree, leaf count and output size to zero
 		degree = new AtomicInteger(0);
 		leafCnt = 0;
+		outSize = 0;
 	}
 	/** Construct OTree_Node with with parent but no children.
 	 *  @param p parent OTree_Elem
@@ -34,24 +33,28 @@ class OTree_Node extends OTree_Elem {
 		super(p);
 		// initialize children array
 		children = new AtomicReferenceArray<OTree_Elem>(OTree_Elem.MAX_CHILDREN);
-		// set degree and leaf count to zero
+		// set degree, leaf count and output size to zero
 		degree = new AtomicInteger(0);
 		leafCnt = 0;
+		outSize = 0;
 	}
 	
 	// Mutators
 	public void calcLeafCnt(){
-		// reset leaf count
+		// reset leaf count and output size
 		this.leafCnt = 0;
+		this.outSize = 0;
 		// for each child
 		for (int i=0; i<this.degree.get(); i++){
-			// sum leaf count
+			// sum leaf count and output size
 			leafCnt += children.get(i).getLeafCnt();
+			outSize += children.get(i).getOutSize();
 		}
 	}
 	public void calcLeafCnt(boolean forceCalc){
-		// reset leaf count
+		// reset leaf count and output size
 		this.leafCnt = 0;
+		this.outSize = 0;
 		// for each child
 		for (int i=0; i<this.degree.get(); i++){
 			// if force calc set
@@ -59,8 +62,9 @@ class OTree_Node extends OTree_Elem {
 				// recalculate leaf count for each child's subtree
 				children.get(i).calcLeafCnt(forceCalc);
 			}
-			// sum leaf count
+			// sum leaf count and output size
 			leafCnt += children.get(i).getLeafCnt();
+			outSize += children.get(i).getOutSize();
 		}
 	}
 	public boolean setChild(int i, OTree_Elem c){
@@ -86,7 +90,7 @@ class OTree_Node extends OTree_Elem {
 					// if successful, add next child in reserved slot
 					this.children.set(curDegree, c);
 					//return the index that was reserved
-					return curDegree;;
+					return curDegree;
 				}				
 			} else {
 				// return failure
@@ -98,15 +102,15 @@ class OTree_Node extends OTree_Elem {
 		// get current degree
 		int curDegree = this.degree.get();
 		// check if valid index
-		if (i>=0 && i<this.degree.){
-			// decrement degree
-			this.degree--;
+		if (i>=0 && i<curDegree){
 			// shift all nodes to right one 
-			for (int j=i+1; j<=this.degree; j++){
-				this.children[j-1] = this.children[j];
+			for (int j=i+1; j<curDegree; j++){
+				this.children.set(j-1, this.children.get(j));
 			}
 			// clean up the last index of child set
-			this.children[this.degree]=null;
+			this.children.set(curDegree-1, null);
+			// decrement degree
+			this.degree.decrementAndGet();
 			return true;
 		} else {
 			// else failed so return false
@@ -114,43 +118,62 @@ class OTree_Node extends OTree_Elem {
 		}
 	}
 	public boolean swapChildren(int i, int j){
+		// get current degree
+		int curDegree = this.degree.get();
 		// catch invalid indices
-		if (i==j || i<0 || j<0 || i>=this.degree || j>=this.degree){
+		if (i==j || i<0 || j<0 || i>=curDegree || j>=curDegree){
 			return false;
 		}
 		// perform simple swap and return true
-		OTree_Elem tmp = this.children[i];
-		this.children[i] = this.children[j];
-		this.children[j] = tmp;
+		OTree_Elem tmp = this.children.get(i);
+		this.children.set(i, this.children.get(j));
+		this.children.set(j, tmp);
 		return true;
 	}
+	public boolean casChild(int i, OTree_Elem e, OTree_Elem n){
+		// check index and n are valid
+		if (i>=0 && i<this.degree.get() && n!=null){
+			// swing child pointer only if still expected value
+			return this.children.compareAndSet(i, e, n);
+		} else {
+			// else return false
+			return false;
+		}
+	}
 	
 	// Inspectors
 	public int getDegree(){
-		return this.degree;
+		return this.degree.get();
 	}
 	public int getLeafCnt(){
 		return this.leafCnt;
 	}
+	/** @return bytes of signature output of subtree rooted here, the record
+	 *  of this node then its children's subtrees as of last calcLeafCnt()
+	 */
+	public int getOutSize(){
+		return super.getOutSize() + this.outSize;
+	}
 	public OTree_Elem getChild(int i){
-		if (i>=0 && i<this.degree){
+		if (i>=0 && i<this.degree.get()){
 			// if valid index return the child
-			return this.children[i];
+			return this.children.get(i);
 		} else {
 			// else return null
 			return null;
 		}
 	}
 	public OTree_Elem[] getChildren(){
+		// get current degree
+		int curDegree = this.degree.get();
 		// check that children is initialized and has children
-		if (children!=null && this.degree>0){
-			try { 
-				// return copy of 
-				return Arrays.copyOf(this.children, this.degree);
-			} catch (Exception e){
-				// return null due to exception
-				return null;
+		if (children!=null && curDegree>0){
+			// return copy of child set
+			OTree_Elem[] tmp = new OTree_Elem[curDegree];
+			for (int i=0; i<curDegree; i++){
+				tmp[i] = this.children.get(i);
 			}
+			return tmp;
 		} else {
 			// return null due to missing children
 			return null;
@@ -184,6 +207,4 @@ class OTree_Node extends OTree_Elem {
 			return null;
 		}
 	}
-	@Override
-	
 }
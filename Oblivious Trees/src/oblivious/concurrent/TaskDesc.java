@@ -1,6 +1,7 @@
 package oblivious.concurrent;
 
 import java.security.Signature;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 class TaskDesc {
@@ -8,15 +9,19 @@ class TaskDesc {
 		INSERT,	// chunk insert operation
 		DELETE,	// chunk delete operation
 		GENSIG,	// output current signature operation
+		BATCH,	// inserts and deletes applied together
 		VOID	// no operation (used to indicate that current task is clear)
 	} 
 	
 	// Instance variables
 	protected OpType operation;	// the operation to be performed
 	protected int index;	// 
-	protected Signature sig; // signature to use for signing
+	protected Signature sig; // signature of owner, helpers sign with their own
 	protected AtomicReference<ByteArrayWrapper> data;	// data to be passed into array
 	protected AtomicReference<DescStatus> status;	// 
+	protected volatile Thread owner;	// thread waiting on task, woken when it is current or done
+	protected List<TaskDesc> batch;	// tasks in order, if a BATCH
+	protected boolean clamp;	// DELETE: skip if out of range rather than fail
 
 	
 	
@@ -28,14 +33,13 @@ class TaskDesc {
 		this.index = -1;
 		this.sig = null;
 		this.data = new AtomicReference<ByteArrayWrapper>();
-		this.status = new AtomicReference<DescStatus>();
+		this.status = new AtomicReference<DescStatus>(new DescStatus());
 	}
 	/** construct new Task Descriptor
 	 *  @param o type of operation
 	 */
 	public TaskDesc(OpType o){
 		this.operation = o;
-		this.operation = TaskDesc.OpType.VOID;
 		this.index = -1;
 		this.sig = null;
 		this.data = new AtomicReference<ByteArrayWrapper>();
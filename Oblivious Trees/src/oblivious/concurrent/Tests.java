@@ -1,15 +1,30 @@
 package oblivious.concurrent;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import application.TestApplication;
 
+import oblivious.NodeSchemes;
+import oblivious.ObliviousTree;
+import oblivious.SignatureFactory;
+import oblivious.SignaturePool;
+
 @SuppressWarnings("unused")
 public class Tests {
 
@@ -26,9 +41,239 @@ public class Tests {
 			System.out.println("DIGEST = "+ObliviousTree.Digest_Info());
 			//*/
 			//testVerify();
+			testStress();
+			testPatch();
+			testParallelVerify();
+			testChunkProof();
+			testRangeProof();
 			
 		} //*/
 		
+		/** many threads inserting and deleting at once, with combining and a
+		 *  signer pool, checked against the operations that completed. Edits
+		 *  are scattered over the whole tree, so combined batches have spans
+		 *  far apart. Ed25519 signatures are deterministic, so each leaf names
+		 *  the chunk it signs.
+		 */
+		private static void testStress(){
+			final int runs = 10, threads = 16, ops = 60, start = 1000;
+			KeyPair keys = NodeSchemes.ed25519KeyPair();
+			final SignatureFactory signers = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate()));
+			SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+			int failed = 0;
+			for (int run=0; run<runs; run++){
+				try {
+					// leaf signatures of every chunk ever in tree
+					final ConcurrentHashMap<String, Boolean> known = new ConcurrentHashMap<String, Boolean>();
+					byte[] file = new byte[start*ConcurrentObliviousTree.CHUNK_SIZE];
+					// seeded apart from workers, whose chunks could repeat the file's otherwise
+					new Random(-1-run).nextBytes(file);
+					Signature signer = signers.newInstance();
+					for (int i=0; i<file.length; i+=ConcurrentObliviousTree.CHUNK_SIZE){
+						signer.update(file, i, ConcurrentObliviousTree.CHUNK_SIZE);
+						known.put(Arrays.toString(signer.sign()), Boolean.TRUE);
+					}
+					final ConcurrentObliviousTree tree = new ConcurrentObliviousTree(file, signer);
+					tree.setSignerPool(new SignaturePool(signers));
+					final AtomicInteger inserted = new AtomicInteger(0);
+					final AtomicInteger deleted = new AtomicInteger(0);
+					final AtomicInteger errors = new AtomicInteger(0);
+					final int seed = run;
+					Thread[] workers = new Thread[threads];
+					for (int t=0; t<threads; t++){
+						final int id = t;
+						workers[t] = new Thread(){
+							public void run(){
+								try {
+									Random rnd = new Random(seed*threads+id);
+									Signature mine = signers.newInstance();
+									for (int o=0; o<ops; o++){
+										int op = rnd.nextInt(10);
+										if (op < 4){
+											tree.insert(chunk(rnd, known, mine), rnd.nextInt(start), mine);
+											inserted.incrementAndGet();
+										} else if (op < 7){
+											List<byte[]> chunks = new ArrayList<byte[]>();
+											for (int k=rnd.nextInt(4); k>=0; k--){
+												chunks.add(chunk(rnd, known, mine));
+											}
+											tree.insertAll(rnd.nextInt(start), chunks, mine);
+											inserted.addAndGet(chunks.size());
+										} else {
+											try {
+												tree.delete(rnd.nextInt(start), mine);
+												deleted.incrementAndGet();
+											} catch (IndexOutOfBoundsException e){
+												// past the end when applied, tree left as it was
+											}
+										}
+									}
+								} catch (Exception e){
+									errors.incrementAndGet();
+									e.printStackTrace();
+								}
+							}
+						};
+						workers[t].start();
+					}
+					for (Thread w : workers){
+						w.join();
+					}
+					// every leaf a distinct chunk inserted, as many as completed operations leave
+					int expect = start + inserted.get() - deleted.get();
+					HashSet<String> seen = new HashSet<String>();
+					int strays = 0;
+					for (int i=0; i<tree.getSize(); i++){
+						String leaf = Arrays.toString(tree.getNode(i).getSig());
+						if (!known.containsKey(leaf) || !seen.add(leaf)){
+							strays++;
+						}
+					}
+					int[] audit = tree.auditTree(verifiers, new ForkJoinPool());
+					boolean ok = errors.get() == 0 && tree.getSize() == expect && strays == 0 && audit == null;
+					System.out.println("stress run "+run+": size = "+tree.getSize()+" expected = "+expect
+							+" strays = "+strays+" errors = "+errors.get()+" audit = "+Arrays.toString(audit)+(ok ? " ok" : " FAILED"));
+					if (!ok){
+						failed++;
+					}
+				} catch (Exception e){
+					e.printStackTrace();
+					failed++;
+				}
+			}
+			System.out.println("stress failed runs = "+failed+" of "+runs);
+		}
+		/** output kept up to date by diff and patch alone matches the tree,
+		 *  and malformed output or patches are refused rather than followed.
+		 */
+		private static void testPatch(){
+			try {
+				KeyPair keys = NodeSchemes.ed25519KeyPair();
+				Signature signer = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate())).newInstance();
+				byte[] file = new byte[500*ConcurrentObliviousTree.CHUNK_SIZE];
+				new Random(1).nextBytes(file);
+				ConcurrentObliviousTree tree = new ConcurrentObliviousTree(file, signer);
+				byte[] patch = tree.signatureDiff(-1);
+				byte[] held = ObliviousTree.signaturePatch(null, patch);
+				long version = ObliviousTree.patchVersion(patch);
+				boolean same = Arrays.equals(held, tree.signatureGenerate());
+				Random rnd = new Random(2);
+				for (int round=0; round<5; round++){
+					for (int o=0; o<4; o++){
+						byte[] value = new byte[ConcurrentObliviousTree.CHUNK_SIZE];
+						rnd.nextBytes(value);
+						tree.insert(value, rnd.nextInt(tree.getSize()), signer);
+						tree.delete(rnd.nextInt(tree.getSize()), signer);
+					}
+					patch = tree.signatureDiff(version);
+					held = ObliviousTree.signaturePatch(held, patch);
+					version = ObliviousTree.patchVersion(patch);
+					same &= Arrays.equals(held, tree.signatureGenerate());
+				}
+				System.out.println("patch round trip = "+same);
+				// patch cut short, and old output nested deeper than any tree
+				byte[] cut = Arrays.copyOf(patch, patch.length-3);
+				ByteBuffer deep = ByteBuffer.allocate(100000*9);
+				while (deep.remaining() >= 9){
+					deep.putInt(1).put((byte) 1).putInt(1);
+				}
+				byte[] empty = ByteBuffer.allocate(12).putLong(0).putInt(0).array();
+				System.out.println("patch cut short refused = "+(ObliviousTree.signaturePatch(held, cut) == null));
+				System.out.println("patch of malformed output refused = "+(ObliviousTree.signaturePatch(deep.array(), empty) == null));
+			} catch (Exception e){
+				e.printStackTrace();
+			}
+		}
+		/** output verified on a pool and streamed from input streams, accepted
+		 *  with the file it was made from and refused with one byte changed.
+		 */
+		private static void testParallelVerify(){
+			try {
+				KeyPair keys = NodeSchemes.ed25519KeyPair();
+				Signature signer = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate())).newInstance();
+				SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+				byte[] file = new byte[3000*ConcurrentObliviousTree.CHUNK_SIZE+37];
+				new Random(20).nextBytes(file);
+				byte[] out = new ConcurrentObliviousTree(file, signer).signatureGenerate();
+				byte[] changed = file.clone();
+				changed[changed.length-10] ^= 1;
+				ForkJoinPool pool = new ForkJoinPool();
+				System.out.println("parallel verify = "+ObliviousTree.signatureVerify(file, out, verifiers, pool));
+				System.out.println("parallel verify changed file refused = "+!ObliviousTree.signatureVerify(changed, out, verifiers, pool));
+				System.out.println("stream verify = "+ObliviousTree.signatureVerify(new ByteArrayInputStream(file), new ByteArrayInputStream(out), verifiers.newInstance()));
+				System.out.println("stream verify changed file refused = "+!ObliviousTree.signatureVerify(new ByteArrayInputStream(changed), new ByteArrayInputStream(out), verifiers.newInstance()));
+			} catch (Exception e){
+				e.printStackTrace();
+			}
+		}
+		/** proof of one chunk accepted for that chunk, refused for another chunk
+		 *  and when a signature in the proof is changed.
+		 */
+		private static void testChunkProof(){
+			try {
+				KeyPair keys = NodeSchemes.ed25519KeyPair();
+				Signature signer = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate())).newInstance();
+				SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+				byte[] file = new byte[1000*ConcurrentObliviousTree.CHUNK_SIZE];
+				new Random(23).nextBytes(file);
+				ConcurrentObliviousTree tree = new ConcurrentObliviousTree(file, signer);
+				byte[] proof = tree.chunkProof(417);
+				byte[] root = tree.getRootSig();
+				System.out.println("chunk proof verify = "+ObliviousTree.chunkProofVerify(chunkAt(file, 417), proof, root, verifiers.newInstance()));
+				System.out.println("chunk proof wrong chunk refused = "+!ObliviousTree.chunkProofVerify(chunkAt(file, 418), proof, root, verifiers.newInstance()));
+				byte[] bad = proof.clone();
+				bad[bad.length-1] ^= 1;
+				System.out.println("chunk proof changed refused = "+!ObliviousTree.chunkProofVerify(chunkAt(file, 417), bad, root, verifiers.newInstance()));
+			} catch (GeneralSecurityException e){
+				e.printStackTrace();
+			}
+		}
+		/** proof of a range accepted for its chunks, refused for the chunks
+		 *  shifted by one, with a chunk left out and with a chunk changed.
+		 *  Proofs do not bind position (see rangeProof), so shifting is only
+		 *  refused because the chunks differ.
+		 */
+		private static void testRangeProof(){
+			try {
+				KeyPair keys = NodeSchemes.ed25519KeyPair();
+				Signature signer = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate())).newInstance();
+				SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+				byte[] file = new byte[1000*ConcurrentObliviousTree.CHUNK_SIZE];
+				new Random(24).nextBytes(file);
+				ConcurrentObliviousTree tree = new ConcurrentObliviousTree(file, signer);
+				byte[] proof = tree.rangeProof(300, 340);
+				byte[] root = tree.getRootSig();
+				byte[][] range = new byte[40][];
+				byte[][] shifted = new byte[40][];
+				for (int i=0; i<40; i++){
+					range[i] = chunkAt(file, 300+i);
+					shifted[i] = chunkAt(file, 301+i);
+				}
+				System.out.println("range proof verify = "+ObliviousTree.rangeProofVerify(range, proof, root, verifiers.newInstance()));
+				System.out.println("range proof shifted chunks refused = "+!ObliviousTree.rangeProofVerify(shifted, proof, root, verifiers.newInstance()));
+				System.out.println("range proof missing chunk refused = "+!ObliviousTree.rangeProofVerify(Arrays.copyOf(range, 39), proof, root, verifiers.newInstance()));
+				range[17] = range[17].clone();
+				range[17][0] ^= 1;
+				System.out.println("range proof changed chunk refused = "+!ObliviousTree.rangeProofVerify(range, proof, root, verifiers.newInstance()));
+			} catch (GeneralSecurityException e){
+				e.printStackTrace();
+			}
+		}
+		/** @return ith chunk of file
+		 */
+		private static byte[] chunkAt(byte[] file, int i){
+			return Arrays.copyOfRange(file, i*ConcurrentObliviousTree.CHUNK_SIZE, (i+1)*ConcurrentObliviousTree.CHUNK_SIZE);
+		}
+		/** @return random chunk, its leaf signature recorded as known
+		 */
+		private static byte[] chunk(Random rnd, ConcurrentHashMap<String, Boolean> known, Signature signer) throws GeneralSecurityException{
+			byte[] value = new byte[ConcurrentObliviousTree.CHUNK_SIZE];
+			rnd.nextBytes(value);
+			signer.update(value);
+			known.put(Arrays.toString(signer.sign()), Boolean.TRUE);
+			return value;
+		}
+		
 		/* test class for making sure verification and such works
 		private static void testVerify(){
 			// get signature objects for signing and verifying
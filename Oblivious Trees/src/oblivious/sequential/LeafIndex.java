@@ -0,0 +1,293 @@
+package oblivious.sequential;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/** Positional index of the leaves of an oblivious tree. Stored as an implicit
+ *  treap, each entry annotated with the size of its subtree, so that get, set,
+ *  insert and remove by position and reverse lookup (indexOf) are all O(log n).
+ *  Each element indexed holds a reference back to its entry for reverse lookup,
+ *  so an element should only be held by one index at a time.
+ */
+class LeafIndex extends AbstractList<OTree_Elem> {
+
+	/** entry of the treap holding one element of the index
+	 */
+	static final class Entry {
+		private OTree_Elem value;	// element held at this position
+		private Entry left;		// entries before this one
+		private Entry right;	// entries after this one
+		private Entry parent;	// parent entry, null if root
+		private int size;		// number of entries in subtree rooted here
+		private final int priority;	// random heap priority of entry
+
+		private Entry(OTree_Elem v, int p){
+			value = v;
+			left = null;
+			right = null;
+			parent = null;
+			size = 1;
+			priority = p;
+		}
+	}
+
+	// Instance properties
+	private Entry root;		// root entry of treap, null if empty
+	private final Random rnd;	// source of entry priorities, shape only so need not be secure
+
+	// Constructors
+	/** Construct an empty leaf index.
+	 */
+	public LeafIndex(){
+		root = null;
+		rnd = new Random();
+	}
+
+	// Inspectors
+	public int size(){
+		return size(this.root);
+	}
+	public OTree_Elem get(int i){
+		checkIndex(i, size());
+		return entryAt(i).value;
+	}
+	/** find position of element by walking from its entry to the root
+	 *  adding the size of everything to the left along the way.
+	 *  @param o element to find
+	 *  @return position of element, -1 if not in this index
+	 */
+	public int indexOf(Object o){
+		if (!(o instanceof OTree_Elem)){
+			return -1;
+		}
+		Entry x = ((OTree_Elem) o).getIndexEntry();
+		if (x == null){
+			return -1;
+		}
+		int idx = size(x.left);
+		while (x.parent != null){
+			// everything left of parent is before us if we are its right child
+			if (x == x.parent.right){
+				idx += size(x.parent.left) + 1;
+			}
+			x = x.parent;
+		}
+		// entry may belong to another (or cleared) index
+		return (x == this.root) ? idx : -1;
+	}
+	public int lastIndexOf(Object o){
+		// elements appear at most once
+		return indexOf(o);
+	}
+	public boolean contains(Object o){
+		return indexOf(o) >= 0;
+	}
+	public Iterator<OTree_Elem> iterator(){
+		return new Itr();
+	}
+
+	// Mutators
+	public OTree_Elem set(int i, OTree_Elem e){
+		checkIndex(i, size());
+		Entry x = entryAt(i);
+		OTree_Elem old = x.value;
+		old.setIndexEntry(null);
+		x.value = e;
+		e.setIndexEntry(x);
+		return old;
+	}
+	public void add(int i, OTree_Elem e){
+		checkIndex(i, size()+1);
+		Entry n = new Entry(e, rnd.nextInt());
+		e.setIndexEntry(n);
+		if (this.root == null){
+			this.root = n;
+		} else if (i == size()){
+			// append as right child of last entry
+			Entry x = this.root;
+			while (x.right != null){
+				x = x.right;
+			}
+			link(n, x, false);
+		} else {
+			// insert immediately before entry at position i
+			Entry x = entryAt(i);
+			if (x.left == null){
+				link(n, x, true);
+			} else {
+				x = x.left;
+				while (x.right != null){
+					x = x.right;
+				}
+				link(n, x, false);
+			}
+		}
+		// restore heap order on priorities
+		while (n.parent != null && n.priority > n.parent.priority){
+			rotateUp(n);
+		}
+		modCount++;
+	}
+	public OTree_Elem remove(int i){
+		checkIndex(i, size());
+		Entry x = entryAt(i);
+		// rotate entry down until it has at most one child
+		while (x.left != null && x.right != null){
+			rotateUp((x.left.priority > x.right.priority) ? x.left : x.right);
+		}
+		// splice entry out, replacing it with its child
+		Entry c = (x.left != null) ? x.left : x.right;
+		Entry p = x.parent;
+		if (c != null){
+			c.parent = p;
+		}
+		if (p == null){
+			this.root = c;
+		} else if (p.left == x){
+			p.left = c;
+		} else {
+			p.right = c;
+		}
+		// shrink sizes on path to root
+		for (Entry q=p; q!=null; q=q.parent){
+			q.size--;
+		}
+		x.value.setIndexEntry(null);
+		modCount++;
+		return x.value;
+	}
+	public void clear(){
+		// stale entries left on elements no longer reach this root
+		this.root = null;
+		modCount++;
+	}
+
+	// Helpers
+	/** @return number of entries in subtree, 0 if null
+	 */
+	private static int size(Entry x){
+		return (x == null) ? 0 : x.size;
+	}
+	/** @throws IndexOutOfBoundsException if i not in [0,bound)
+	 */
+	private static void checkIndex(int i, int bound){
+		if (i < 0 || i >= bound){
+			throw new IndexOutOfBoundsException("Index: "+i+", Size: "+bound);
+		}
+	}
+	/** descend treap by subtree sizes to the entry at position i.
+	 *  @param i valid position
+	 *  @return entry at position i
+	 */
+	private Entry entryAt(int i){
+		Entry x = this.root;
+		while (true){
+			int ls = size(x.left);
+			if (i < ls){
+				x = x.left;
+			} else if (i == ls){
+				return x;
+			} else {
+				i -= ls + 1;
+				x = x.right;
+			}
+		}
+	}
+	/** link new entry as child of given parent and grow sizes up to root.
+	 *  @param n new entry
+	 *  @param p parent entry, must have open slot on side
+	 *  @param asLeft true to link as left child, false for right child
+	 */
+	private static void link(Entry n, Entry p, boolean asLeft){
+		n.parent = p;
+		if (asLeft){
+			p.left = n;
+		} else {
+			p.right = n;
+		}
+		for (Entry q=p; q!=null; q=q.parent){
+			q.size++;
+		}
+	}
+	/** rotate entry above its parent, keeping in-order sequence and sizes.
+	 *  @param n entry to rotate up, must have a parent
+	 */
+	private void rotateUp(Entry n){
+		Entry p = n.parent;
+		Entry g = p.parent;
+		if (n == p.left){
+			p.left = n.right;
+			if (n.right != null){
+				n.right.parent = p;
+			}
+			n.right = p;
+		} else {
+			p.right = n.left;
+			if (n.left != null){
+				n.left.parent = p;
+			}
+			n.left = p;
+		}
+		p.parent = n;
+		n.parent = g;
+		if (g == null){
+			this.root = n;
+		} else if (g.left == p){
+			g.left = n;
+		} else {
+			g.right = n;
+		}
+		p.size = 1 + size(p.left) + size(p.right);
+		n.size = 1 + size(n.left) + size(n.right);
+	}
+
+	/** in-order iterator, each step follows the successor link in O(1) amortized.
+	 */
+	private class Itr implements Iterator<OTree_Elem> {
+		private Entry next;		// next entry to return, null if done
+		private final int expectedModCount;	// modCount when iteration began
+
+		private Itr(){
+			next = root;
+			if (next != null){
+				while (next.left != null){
+					next = next.left;
+				}
+			}
+			expectedModCount = modCount;
+		}
+		public boolean hasNext(){
+			return next != null;
+		}
+		public OTree_Elem next(){
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			if (next == null){
+				throw new NoSuchElementException();
+			}
+			Entry x = next;
+			// successor is leftmost of right subtree, else first ancestor we are left of
+			if (x.right != null){
+				next = x.right;
+				while (next.left != null){
+					next = next.left;
+				}
+			} else {
+				Entry c = x;
+				next = x.parent;
+				while (next != null && c == next.right){
+					c = next;
+					next = next.parent;
+				}
+			}
+			return x.value;
+		}
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+}
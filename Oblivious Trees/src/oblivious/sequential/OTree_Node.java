@@ -9,6 +9,7 @@ class OTree_Node extends OTree_Elem {
 	private OTree_Elem[] children;
 	private int degree;
 	private int leafCnt;
+	private int outSize;	// bytes of signature output of subtrees of children
 	
 	// Constructors
 	/** Construct OTree_Node with no parent and no children.
@@ -19,9 +20,10 @@ class OTree_Node extends OTree_Elem {
 		children = new OTree_Elem[OTree_Elem.MAX_CHILDREN];
 		// initialize all children to null
 		Arrays.fill(children, null);
-		// set degree and leaf count to zero
+		// set degree, leaf count and output size to zero
 		degree = 0;
 		leafCnt = 0;
+		outSize = 0;
 	}
 	/** Construct OTree_Node with with parent but no children.
 	 *  @param p parent OTree_Elem
@@ -33,24 +35,28 @@ class OTree_Node extends OTree_Elem {
 		children = new OTree_Elem[OTree_Elem.MAX_CHILDREN];
 		// initialize all children to null
 		Arrays.fill(children, null);
-		// set degree and leaf count to zero
+		// set degree, leaf count and output size to zero
 		degree = 0;
 		leafCnt = 0;
+		outSize = 0;
 	}
 	
 	// Mutators
 	public void calcLeafCnt(){
-		// reset leaf count
+		// reset leaf count and output size
 		this.leafCnt = 0;
+		this.outSize = 0;
 		// for each child
 		for (int i=0; i<this.degree; i++){
-			// sum leaf count
+			// sum leaf count and output size
 			leafCnt += children[i].getLeafCnt();
+			outSize += children[i].getOutSize();
 		}
 	}
 	public void calcLeafCnt(boolean forceCalc){
-		// reset leaf count
+		// reset leaf count and output size
 		this.leafCnt = 0;
+		this.outSize = 0;
 		// for each child
 		for (int i=0; i<this.degree; i++){
 			// if force calc set
@@ -58,8 +64,9 @@ class OTree_Node extends OTree_Elem {
 				// recalculate leaf count for each child's subtree
 				children[i].calcLeafCnt(forceCalc);
 			}
-			// sum leaf count
+			// sum leaf count and output size
 			leafCnt += children[i].getLeafCnt();
+			outSize += children[i].getOutSize();
 		}
 	}
 	public boolean setChild(int i, OTree_Elem c){
@@ -120,6 +127,12 @@ class OTree_Node extends OTree_Elem {
 	public int getLeafCnt(){
 		return this.leafCnt;
 	}
+	/** @return bytes of signature output of subtree rooted here, the record
+	 *  of this node then its children's subtrees as of last calcLeafCnt()
+	 */
+	public int getOutSize(){
+		return super.getOutSize() + this.outSize;
+	}
 	public OTree_Elem getChild(int i){
 		if (i>=0 && i<this.degree){
 			// if valid index return the child
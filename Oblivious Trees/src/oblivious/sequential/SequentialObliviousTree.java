@@ -1,15 +1,32 @@
 package oblivious.sequential;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import oblivious.ObliviousTree;
+import oblivious.SigArena;
+import oblivious.SignatureFactory;
+import oblivious.SignaturePool;
 
 /** Oblivious Tree - COP 6616
  * @author William Strickland and Chris Fontaine
@@ -19,68 +36,227 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 
 	/* Class Properties */
 	private static final Random rndSrc = initPRNG();				// Random source for creating obliviousness
+	private static final int SERIAL_SPAN = 64*1024;	// Bytes of signature output written by a single fork-join task
 	
 	/* Instance Properties */
 	private OTree_Node root;	// root node of tree
-	private ArrayList<OTree_Elem> treeNodes;	// list of nodes and leaves for rapid access
+	private LeafIndex treeNodes;	// positional index of leaves for rapid access
+	private boolean lazy;	// defer re-signing of changed nodes until flushed
+	private Signature lazySigner;	// tree's own signer for flushing before reads, from factory given when lazy
+	private boolean merkle;	// internal nodes hold digests of children, only root signed
+	private byte[] rootSig;	// signature of root digest, if merkle
+	private MessageDigest digest;	// digest for internal nodes, if merkle
+	private SigArena sigArena = null;	// off-heap store for node signatures, null for heap
+	private ArrayList<OTree_Elem> written;	// nodes re-signed or changed since last verifyWrites, null if not tracking
 	
 	/** Constructor generates empty initial tree.
 	 */
 	public SequentialObliviousTree(){
 		root = new OTree_Node();
+		treeNodes = new LeafIndex();
 	}
 	/** Constructor generates initial leaf node using using a given input file.
+	 *  @throws IOException if file cannot be read
+	 *  @throws GeneralSecurityException if a node cannot be signed
 	 */
-	public SequentialObliviousTree(FileInputStream file, Signature signer){
+	public SequentialObliviousTree(FileInputStream file, Signature signer) throws IOException, GeneralSecurityException{
 		//1). Instantiate root node
 		root = new OTree_Node();
-		treeNodes = new ArrayList<OTree_Elem>();
+		treeNodes = new LeafIndex();
+		//2). Stream leaf nodes from the file into the Oblivious Tree
+		build(file, signer);
+	}
+	/** Constructor generates initial leaf node using a given input file, which is
+	 *  memory-mapped rather than read so leaves are signed straight from the mapping.
+	 *  @param file path of file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be opened or mapped
+	 *  @throws GeneralSecurityException if a node cannot be signed
+	 */
+	public SequentialObliviousTree(Path file, Signature signer) throws IOException, GeneralSecurityException{
+		//1). Instantiate root node
+		root = new OTree_Node();
+		treeNodes = new LeafIndex();
+		//2). Stream leaf nodes from the mapped file into the Oblivious Tree
+		build(file, signer);
+	}
+	/** Constructor generates initial leaf node using using a given input byte array.
+	 */
+	public SequentialObliviousTree(byte[] file, Signature signer){
+		//1). Instantiate root node
+		root = new OTree_Node();
+		treeNodes = new LeafIndex();
 		//2). Generate leaf nodes from the byte array
 		generateLeaves(file, signer);
 		//3). Create Oblivious Tree
 		create(signer);
 	}
 	/** Constructor generates initial leaf node using using a given input byte array.
+	 *  Leaves are signed in parallel on the given pool, internal nodes sequentially.
+	 *  @param file byte array to be put signed in leaves
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign leaves on
+	 *  @throws GeneralSecurityException if a leaf cannot be signed
 	 */
-	public SequentialObliviousTree(byte[] file, Signature signer){
+	public SequentialObliviousTree(byte[] file, SignatureFactory signers, ForkJoinPool pool) throws GeneralSecurityException{
 		//1). Instantiate root node
 		root = new OTree_Node();
-		treeNodes = new ArrayList<OTree_Elem>();
+		treeNodes = new LeafIndex();
 		//2). Generate leaf nodes from the byte array
-		generateLeaves(file, signer);
+		generateLeaves(file, signers, pool);
 		//3). Create Oblivious Tree
-		create(signer);
+		create(signers.newInstance());
 	}
 	
 	// Constructor helpers
-	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
-	 *  and, after taking a number between two and three, generate a number of non-leaf, which
-	 *  @param byte[] file
-	 *  @return void
+	/** Streaming version of generateLeaves() followed by create(). Chunks are read
+	 *  and signed one at a time and every 2/3 group is linked to a signed parent as
+	 *  soon as it fills, so only the open parent of each level is held at once and
+	 *  temporary memory scales with tree height rather than file size. Degrees are
+	 *  drawn left to right per level just as in create(), giving the same shape
+	 *  distribution.
+	 *  @param file file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be read
+	 *  @throws SignatureException if a node cannot be signed, no tree is built
 	 */
-	private void generateLeaves(FileInputStream file, Signature signer){	
-		int this_size;
+	private void build(FileInputStream file, Signature signer) throws IOException, SignatureException{
+		// parent being filled at each level (index 0 is parent of leaves)
+		ArrayList<OTree_Node> open = new ArrayList<OTree_Node>();
+		// random degree chosen for open parent of each level
+		ArrayList<Integer> degree = new ArrayList<Integer>();
 		byte[] chunk = new byte[ObliviousTree.CHUNK_SIZE];
+		int this_size;
+		treeNodes.clear();
+		// loop until reaches end of file
+		while((this_size = ObliviousTree.readChunk(file, chunk)) > 0){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			signer.update(chunk, 0, this_size);
+			newLeaf.setSig(signer.sign(), this.sigArena);
+			treeNodes.add(newLeaf);
+			// link leaf into tree, completing any full parents above it
+			streamLink(open, degree, 0, newLeaf, signer);
+		}
+		// close remaining open parents and set root
+		streamFinish(open, degree, signer);
+	}
+	/** Memory-mapped version of build(). The file is mapped in windows of whole
+	 *  chunks and each leaf is signed straight from the mapping through
+	 *  Signature.update(ByteBuffer), with no copy of the chunk onto the heap.
+	 *  @param file path of file to be put signed in leaves
+	 *  @param signer signature to be used for signing leaves and nodes
+	 *  @throws IOException if file cannot be opened or mapped
+	 *  @throws SignatureException if a leaf cannot be signed, no tree is built
+	 */
+	private void build(Path file, Signature signer) throws IOException, SignatureException{
+		// parent being filled at each level (index 0 is parent of leaves)
+		ArrayList<OTree_Node> open = new ArrayList<OTree_Node>();
+		// random degree chosen for open parent of each level
+		ArrayList<Integer> degree = new ArrayList<Integer>();
 		treeNodes.clear();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
 		try {
-			// loop until reaches end of file
-			while(true){
-				this_size = file.read(chunk);
-				OTree_Leaf newLeaf = new OTree_Leaf();
-				signer.update(chunk, 0, this_size);
-				newLeaf.setSig(signer.sign());
-				treeNodes.add(newLeaf);
-				
-				// if less than whole chunk, reached end of file
-				if (this_size < ObliviousTree.CHUNK_SIZE){
-					// break out of loop
-					break;
+			long size = channel.size();
+			// map file a window at a time, windows hold whole chunks only
+			for (long pos=0; pos<size; pos+=ObliviousTree.MAP_WINDOW){
+				MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(ObliviousTree.MAP_WINDOW, size-pos));
+				int end = buf.limit();
+				// loop until reaches end of window
+				while (buf.hasRemaining()){
+					OTree_Leaf newLeaf = new OTree_Leaf();
+					// limit buffer to next chunk, update consumes it up to limit
+					buf.limit(Math.min(buf.position()+ObliviousTree.CHUNK_SIZE, end));
+					signer.update(buf);
+					buf.limit(end);
+					newLeaf.setSig(signer.sign(), this.sigArena);
+					treeNodes.add(newLeaf);
+					// link leaf into tree, completing any full parents above it
+					streamLink(open, degree, 0, newLeaf, signer);
 				}
 			}
-		} catch (Exception e){
-			return;
+		} finally {
+			channel.close();
 		}
-	} //*/
+		// close remaining open parents and set root
+		streamFinish(open, degree, signer);
+	}
+	/** Close the parents left open at the end of a streaming build from the
+	 *  bottom up, linking each into the level above, and set the root.
+	 *  @param open parent being filled at each level
+	 *  @param degree random degree chosen for open parent of each level
+	 *  @param signer signature to be used for signing completed parents
+	 *  @throws SignatureException if a parent cannot be signed
+	 */
+	private void streamFinish(ArrayList<OTree_Node> open, ArrayList<Integer> degree, Signature signer) throws SignatureException{
+		// close remaining open parents from the bottom up
+		for (int lvl=0; lvl<open.size(); lvl++){
+			OTree_Node parent = open.get(lvl);
+			if (parent == null){
+				continue;
+			}
+			open.set(lvl, null);
+			// top level with single internal child, that child is the root
+			if (lvl == open.size()-1 && lvl > 0 && parent.getDegree() == 1){
+				this.root = (OTree_Node) parent.getChild(0);
+				this.root.clearParent();
+				break;
+			}
+			// finish partial parent
+			parent.calcLeafCnt();
+			if (!updateSig(parent, signer, this.sigArena)){
+				throw new SignatureException("cannot sign node");
+			}
+			// top level, this parent is the root
+			if (lvl == open.size()-1){
+				this.root = parent;
+				break;
+			}
+			// otherwise it is the next node of the level above
+			streamLink(open, degree, lvl+1, parent, signer);
+		}
+	}
+	/** Link a completed node into the open parent of the given level. If that
+	 *  parent reaches its random degree it is signed and linked into the level
+	 *  above, repeating until a parent is left open.
+	 *  @param open parent being filled at each level
+	 *  @param degree random degree chosen for open parent of each level
+	 *  @param lvl level of parent to link node into
+	 *  @param e completed node to be linked
+	 *  @param signer signature to be used for signing completed parents
+	 *  @throws SignatureException if a parent cannot be signed
+	 */
+	private void streamLink(ArrayList<OTree_Node> open, ArrayList<Integer> degree, int lvl, OTree_Elem e, Signature signer) throws SignatureException{
+		while (e != null){
+			// grow level lists when tree grows taller
+			if (lvl == open.size()){
+				open.add(null);
+				degree.add(0);
+			}
+			// start new parent with random degree if none open
+			OTree_Node parent = open.get(lvl);
+			if (parent == null){
+				parent = new OTree_Node();
+				open.set(lvl, parent);
+				degree.set(lvl, (rndSrc.nextBoolean()) ? 2 : 3);
+			}
+			// link node to parent as child
+			parent.addChild(e);
+			e.setParent(parent);
+			if (parent.getDegree() < degree.get(lvl)){
+				// parent still open, done
+				e = null;
+			} else {
+				// parent full, finish it and pass up to next level
+				parent.calcLeafCnt();
+				if (!updateSig(parent, signer, this.sigArena)){
+					throw new SignatureException("cannot sign node");
+				}
+				open.set(lvl, null);
+				e = parent;
+				lvl++;
+			}
+		}
+	}
 	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
 	 *  and, after taking a number between two and three, generate a number of non-leaf, which
 	 *  @param byte[] file
@@ -96,13 +272,30 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 				OTree_Leaf newLeaf = new OTree_Leaf();
 				this_size = (file.length-i>ObliviousTree.CHUNK_SIZE) ? ObliviousTree.CHUNK_SIZE : file.length-i;
 				signer.update(file, i, this_size);
-				newLeaf.setSig(signer.sign());
+				newLeaf.setSig(signer.sign(), this.sigArena);
 				treeNodes.add(newLeaf);
 			}
 		} catch (Exception e){
 			return;
 		}
 	} //*/
+	/** Parallel version of generateLeaves(). Chunks are signed on the pool
+	 *  (see ObliviousTree.signChunks) and then wrapped in leaves in order.
+	 *  @param file byte array to be put signed in leaves
+	 *  @param signers factory for signing Signatures, one is used per worker
+	 *  @param pool fork-join pool to sign chunks on
+	 *  @throws SignatureException if a chunk cannot be signed
+	 */
+	private void generateLeaves(byte[] file, SignatureFactory signers, ForkJoinPool pool) throws SignatureException{
+		// clear current leaves
+		treeNodes.clear();
+		byte[][] sigs = ObliviousTree.signChunks(file, signers, pool);
+		for (byte[] s : sigs){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			newLeaf.setSig(s, this.sigArena);
+			treeNodes.add(newLeaf);
+		}
+	}
 	
 	/** Oblivious are generated from the ground up. Meaning we take a number of leaf nodes
 	 *  and, after taking a number between two and three, generate a number of non-leaf, which
@@ -114,7 +307,7 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		ArrayList<OTree_Elem> currentLevel;
 		
 		// Initialize with leaf nodes that have already been constructed
-		previousLevel = this.treeNodes;
+		previousLevel = new ArrayList<OTree_Elem>(this.treeNodes);
 		
 		// loop while more than a single node in tree
 		// using a do while will not allow a tree that consists of only a single leaf
@@ -142,8 +335,9 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 					// increment index
 					i++;
 				}
-				// update new node signature
-				updateSig(newNode, signer);
+				// update new node leaf count and signature
+				newNode.calcLeafCnt();
+				updateSig(newNode, signer, this.sigArena);
 				// add new node to current level
 				currentLevel.add(newNode);
 			}
@@ -187,7 +381,8 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
             try
             {
                  signer.update(value);
-                 newLeaf.setSig(signer.sign());
+                 newLeaf.setSig(signer.sign(), this.sigArena);
+                 record(newLeaf);
             } 
             catch (SignatureException e){}
             
@@ -262,7 +457,7 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
                         }
                     }
                     
-                    updateSig(currentNode, signer);
+                    signNode(currentNode, signer);
                     
                     if(skipLevel)
                     {
@@ -294,7 +489,8 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
                 previousNode = ithParent;
             }
             
-            updateSig(root, signer);
+            signNode(root, signer);
+            signRoot(signer);
             
         }
         public synchronized void delete(int i,  Signature signer)
@@ -339,6 +535,7 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
             //transferNode.setParent(ithParent);
             ithParent.removeChild(deleteIndex);
             treeNodes.remove(i);
+            record(ithParent);
             
 //            firstChildIndex = treeNodes.indexOf(ithParent.getChild(0));
 //
@@ -402,7 +599,7 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
                         }
                     }
                     
-                    updateSig(currentNode, signer);
+                    signNode(currentNode, signer);
                     
                     if(skipLevel)
                     {
@@ -428,9 +625,168 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
                 previousNode = ithParent;
             }
             
-            updateSig(root, signer);
+            signNode(root, signer);
+            signRoot(signer);
             
         }
+	/** Inserts chunks as consecutive leaves starting at i, regrouping the
+	 *  affected span in a single pass (see restructure).
+	 *  @param i index of leaf first chunk is inserted at, clamped to [0,size]
+	 *  @param chunks values to be inserted, in order
+	 *  @param signer signature for signing new nodes
+	 *  @throws SignatureException if a chunk cannot be signed, tree is left unchanged
+	 */
+	public synchronized void insertAll(int i, List<byte[]> chunks, Signature signer) throws SignatureException{
+		int size = this.treeNodes.size();
+		i = Math.max(0, Math.min(i, size));
+		// sign every new leaf before touching the tree
+		ArrayList<OTree_Elem> newLeaves = new ArrayList<OTree_Elem>();
+		for (byte[] value : chunks){
+			OTree_Leaf newLeaf = new OTree_Leaf();
+			signer.update(value);
+			newLeaf.setSig(signer.sign(), this.sigArena);
+			newLeaves.add(newLeaf);
+		}
+		for (OTree_Elem newLeaf : newLeaves){
+			record(newLeaf);
+		}
+		if (newLeaves.isEmpty()){
+			return;
+		}
+		ArrayList<OTree_Elem> nodes = new ArrayList<OTree_Elem>();
+		ArrayList<OTree_Elem> run = new ArrayList<OTree_Elem>();
+		if (size == 0){
+			// empty tree, leaves hang from (replaced) root
+			run.add(this.root);
+			nodes.addAll(newLeaves);
+		} else {
+			// insert before leaf at i, or after last leaf if appending
+			OTree_Elem target = this.treeNodes.get((i < size) ? i : size-1);
+			OTree_Elem parent = target.getParent();
+			run.add(parent);
+			nodes.addAll(Arrays.asList(parent.getChildren()));
+			nodes.addAll(nodes.indexOf(target) + ((i < size) ? 0 : 1), newLeaves);
+		}
+		for (int j=0; j<newLeaves.size(); j++){
+			this.treeNodes.add(i+j, newLeaves.get(j));
+		}
+		restructure(nodes, run, signer);
+		signRoot(signer);
+	}
+	/** Deletes leaves from index from (inclusive) to index to (exclusive),
+	 *  clamped to the leaves present, regrouping the affected span in a
+	 *  single pass (see restructure).
+	 *  @param from index of first leaf to delete
+	 *  @param to index after last leaf to delete
+	 *  @param signer signature for signing new nodes
+	 */
+	public synchronized void deleteRange(int from, int to, Signature signer){
+		from = Math.max(from, 0);
+		to = Math.min(to, this.treeNodes.size());
+		if (from >= to){
+			return;
+		}
+		// parents of deleted leaves are contiguous on their level
+		OTree_Node first = (OTree_Node) this.treeNodes.get(from).getParent();
+		OTree_Node last = (OTree_Node) this.treeNodes.get(to-1).getParent();
+		ArrayList<OTree_Elem> run = new ArrayList<OTree_Elem>();
+		run.add(first);
+		while (run.get(run.size()-1) != last){
+			run.add(getNeighbor((OTree_Node) run.get(run.size()-1), 0));
+		}
+		ArrayList<OTree_Elem> nodes = new ArrayList<OTree_Elem>();
+		for (OTree_Elem p : run){
+			nodes.addAll(Arrays.asList(p.getChildren()));
+		}
+		// remove leaves, each removal shifts the rest down onto from
+		for (int j=from; j<to; j++){
+			nodes.remove(this.treeNodes.remove(from));
+		}
+		restructure(nodes, run, signer);
+		signRoot(signer);
+	}
+	/** Regroup a changed span of the tree level by level up to the root. At
+	 *  each level the nodes are grouped under new parents with random degree
+	 *  2 or 3. The grouping must end on the boundary of an old parent, so
+	 *  while a group runs past the nodes on hand the run of old parents being
+	 *  replaced is extended by its level neighbor. The new parents, with the
+	 *  rest of the children of the old grandparents of the run, make up the
+	 *  next level up. Each new parent is signed once.
+	 *  @param nodes leaf level nodes of span in order, after change
+	 *  @param run old leaf parents the span replaces, in order
+	 *  @param signer signature for signing new nodes
+	 */
+	private void restructure(ArrayList<OTree_Elem> nodes, ArrayList<OTree_Elem> run, Signature signer){
+		int level = 0;
+		while (true){
+			boolean top = run.isEmpty() || run.get(0).getParent() == null;
+			if (top && nodes.isEmpty()){
+				// no leaves left
+				this.root = new OTree_Node();
+				return;
+			}
+			if (top && level > 0 && nodes.size() == 1){
+				// single node left on top is the root
+				this.root = (OTree_Node) nodes.get(0);
+				this.root.clearParent();
+				return;
+			}
+			// group nodes under new parents
+			ArrayList<OTree_Elem> parents = new ArrayList<OTree_Elem>();
+			int i = 0;
+			while (i < nodes.size()){
+				int degree = (rndSrc.nextBoolean()) ? 2 : 3;
+				// extend run until group fits, or cut group short at end of level
+				while (nodes.size() - i < degree){
+					OTree_Node neighbor = (run.isEmpty()) ? null : getNeighbor((OTree_Node) run.get(run.size()-1), 0);
+					if (neighbor == null){
+						degree = nodes.size() - i;
+						break;
+					}
+					run.add(neighbor);
+					nodes.addAll(Arrays.asList(neighbor.getChildren()));
+				}
+				OTree_Node newNode = new OTree_Node();
+				for (int j=0; j<degree; j++){
+					newNode.addChild(nodes.get(i));
+					nodes.get(i).setParent(newNode);
+					i++;
+				}
+				signNode(newNode, signer);
+				parents.add(newNode);
+			}
+			if (top){
+				if (parents.size() == 1){
+					this.root = (OTree_Node) parents.get(0);
+					return;
+				}
+				// too many to be root, group them above
+				nodes = parents;
+				run = new ArrayList<OTree_Elem>();
+			} else {
+				// old grandparents spanning run, their children with run replaced
+				ArrayList<OTree_Elem> grand = new ArrayList<OTree_Elem>();
+				OTree_Node last = (OTree_Node) run.get(run.size()-1).getParent();
+				grand.add(run.get(0).getParent());
+				while (grand.get(grand.size()-1) != last){
+					grand.add(getNeighbor((OTree_Node) grand.get(grand.size()-1), 0));
+				}
+				nodes = new ArrayList<OTree_Elem>();
+				for (OTree_Elem g : grand){
+					for (OTree_Elem c : g.getChildren()){
+						if (c == run.get(0)){
+							nodes.addAll(parents);
+						}
+						if (!run.contains(c)){
+							nodes.add(c);
+						}
+					}
+				}
+				run = grand;
+			}
+			level++;
+		}
+	}
         
 
         
@@ -536,21 +892,322 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		return this.treeNodes.size();	// vector version
 	}
 	
+	/** Turn lazy signing on or off. While on, inserts and deletes only mark
+	 *  the nodes they change (and the path to the root) and the marked nodes
+	 *  are re-signed bottom-up, each once, on the next flush. Flush happens
+	 *  explicitly or before any read of signatures (signatureGenerate,
+	 *  verifyTree, getRootSig, proofs), then with a Signature the tree makes
+	 *  from the given factory and keeps to itself. Turning lazy signing off
+	 *  flushes any pending changes.
+	 *  @param on true to defer signing, false to sign on every change
+	 *  @param signers factory of signing Signatures with same key as tree,
+	 *  used for flushes before reads, may be null when turning off
+	 *  @return true if successful, false if no signer could be made
+	 */
+	public synchronized boolean setLazySigning(boolean on, SignatureFactory signers){
+		if (!on){
+			flushPending();
+			this.lazy = false;
+			this.lazySigner = null;
+			return true;
+		}
+		try {
+			this.lazySigner = signers.newInstance();
+		} catch (GeneralSecurityException e){
+			return false;
+		}
+		this.lazy = true;
+		return true;
+	}
+	/** @return true if re-signing is deferred until flushed
+	 */
+	public synchronized boolean isLazySigning(){
+		return this.lazy;
+	}
+	/** re-sign all nodes marked by deferred changes, children before parents.
+	 *  @param signer signature for signing must be initialized for signing
+	 *  @return true if successful, false if failure
+	 */
+	public synchronized boolean flush(Signature signer){
+		boolean changed = this.root.isDirty();
+		if (flush(this.root, signer)){
+			// root digest changed so sign again
+			if (changed && this.merkle){
+				boolean lazy = this.lazy;
+				this.lazy = false;
+				signRoot(signer);
+				this.lazy = lazy;
+				return this.rootSig != null || this.root.getDegree() == 0;
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+	/** re-sign marked nodes of subtree, only descending into marked children.
+	 */
+	private boolean flush(OTree_Elem e, Signature signer){
+		if (!e.isDirty()){
+			return true;
+		}
+		for (int i=0; i<e.getDegree(); i++){
+			if (!flush(e.getChild(i), signer)){
+				return false;
+			}
+		}
+		if (e.getDegree() > 0 && !sealNode(e, signer)){
+			return false;
+		}
+		e.clearDirty();
+		return true;
+	}
+	/** flush with tree's own signer, if any changes are pending.
+	 */
+	private void flushPending(){
+		if (this.lazySigner != null && this.root.isDirty()){
+			flush(this.lazySigner);
+		}
+	}
+	/** sign changed node now, or if lazy mark it to be signed on next flush.
+	 *  @param n changed node
+	 *  @param signer signature for signing must be initialized for signing
+	 */
+	private void signNode(OTree_Elem n, Signature signer){
+		if (this.lazy){
+			n.markDirty();
+		} else {
+			sealNode(n, signer);
+		}
+	}
+	/** Store signatures of the nodes of this tree in the given off-heap arena
+	 *  rather than in a byte[] per node. Nodes already in the tree are moved
+	 *  into the arena now, later ones are stored there as they are signed.
+	 *  Signatures too long for a slot stay on heap. Trees may share an arena.
+	 *  @param arena arena to store signatures in, null to go back to heap
+	 */
+	public void setSigArena(SigArena arena){
+		this.sigArena = arena;
+		moveSigRecurse(this.root, arena);
+	}
+	/** @return arena node signatures of this tree are stored in, null if on heap
+	 */
+	public SigArena getSigArena(){
+		return this.sigArena;
+	}
+	/** move signatures of subtree into given arena, or onto heap
+	 *  @param e root of subtree
+	 *  @param arena arena to store signatures in, null for heap
+	 */
+	private static void moveSigRecurse(OTree_Elem e, SigArena arena){
+		e.moveSig(arena);
+		for (int i=0; i<e.getDegree(); i++){
+			moveSigRecurse(e.getChild(i), arena);
+		}
+	}
+	/** Turn merkle mode on or off. In merkle mode each internal node holds a
+	 *  SHA-256 digest of its children's signatures (or digests) instead of a
+	 *  signature, leaves stay signed and only the root digest is signed, so
+	 *  a change costs one private key operation past its leaves rather than
+	 *  one per level. Switching re-computes every internal node. Output of
+	 *  signatureGenerate in merkle mode is checked by signatureVerifyMerkle.
+	 *  @param on true for merkle mode, false for every node signed
+	 *  @param signer signature for signing must be initialized for signing
+	 *  @return true if successful, false if failure
+	 */
+	public synchronized boolean setMerkle(boolean on, Signature signer){
+		flushPending();
+		if (on && this.digest == null){
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e){
+				return false;
+			}
+		}
+		this.merkle = on;
+		this.rootSig = null;
+		if (!reseal(this.root, signer)){
+			return false;
+		}
+		boolean lazy = this.lazy;
+		this.lazy = false;
+		signRoot(signer);
+		this.lazy = lazy;
+		return !on || this.rootSig != null || this.root.getDegree() == 0;
+	}
+	/** @return true if internal nodes hold digests and only root is signed
+	 */
+	public synchronized boolean isMerkle(){
+		return this.merkle;
+	}
+	/** Turn tracking of writes on or off. While on, each node a change
+	 *  re-signs (or leaves changed) is recorded, so verifyWrites can check
+	 *  just those nodes rather than the whole tree.
+	 *  @param on true to record changed nodes, false to stop
+	 */
+	public synchronized void setWriteTracking(boolean on){
+		this.written = (on) ? new ArrayList<OTree_Elem>() : null;
+	}
+	/** @return true if changed nodes are recorded for verifyWrites
+	 */
+	public synchronized boolean isWriteTracking(){
+		return this.written != null;
+	}
+	/** record node changed by current operation, if tracking writes.
+	 */
+	private void record(OTree_Elem n){
+		if (this.written != null){
+			this.written.add(n);
+		}
+	}
+	/** Check only the nodes changed since the last call, O(changes x height)
+	 *  rather than a full verifyTree. Each changed node still in the tree is
+	 *  checked against its children, and so is its parent, which catches a
+	 *  parent left unsigned after its child changed. Checks the whole tree if
+	 *  write tracking is off.
+	 *  @param verifier signature to be used to check
+	 *  @return true if valid, false if invalid
+	 */
+	public synchronized boolean verifyWrites(Signature verifier){
+		if (this.written == null){
+			return verifyTree(verifier);
+		}
+		flushPending();
+		IdentityHashMap<OTree_Elem, Boolean> checked = new IdentityHashMap<OTree_Elem, Boolean>();
+		boolean valid = true;
+		for (OTree_Elem n : this.written){
+			// nodes since dropped from the tree no longer matter
+			if (!inTree(n)){
+				continue;
+			}
+			// node, then its parent
+			OTree_Elem[] pair = {n, n.getParent()};
+			for (OTree_Elem e : pair){
+				if (e != null && checked.put(e, Boolean.TRUE) == null && !checkNode(e, verifier)){
+					valid = false;
+				}
+			}
+		}
+		if (valid && this.merkle && checked.containsKey(this.root) && this.root.getDegree() > 0){
+			// root digest changed, check its signature
+			try {
+				verifier.update(this.root.getSig());
+				valid = this.rootSig != null && verifier.verify(this.rootSig);
+			} catch (SignatureException e){
+				valid = false;
+			}
+		}
+		if (valid){
+			this.written.clear();
+		}
+		return valid;
+	}
+	/** @return true if node hangs from the root through its parents
+	 */
+	private boolean inTree(OTree_Elem n){
+		OTree_Elem e = n;
+		while (e.getParent() != null){
+			OTree_Elem p = e.getParent();
+			boolean child = false;
+			for (int i=0; i<p.getDegree(); i++){
+				child |= (p.getChild(i) == e);
+			}
+			if (!child){
+				return false;
+			}
+			e = p;
+		}
+		return e == this.root;
+	}
+	/** check a single node against its children, signature or merkle digest.
+	 *  @return true if valid (or leaf), false if invalid
+	 */
+	private boolean checkNode(OTree_Elem n, Signature verifier){
+		if (n.getDegree() == 0){
+			return true;
+		} else if (n.getDegree() > MAX_DEGREE){
+			return false;
+		}
+		try {
+			if (!this.merkle){
+				return verifySig(n, verifier);
+			}
+			for (int i=0; i<n.getDegree(); i++){
+				this.digest.update(n.getChild(i).getSig());
+			}
+			return MessageDigest.isEqual(this.digest.digest(), n.getSig());
+		} catch (RuntimeException e){
+			// node or child unsigned
+			return false;
+		}
+	}
+	/** re-compute every internal node of subtree, children before parents.
+	 */
+	private boolean reseal(OTree_Elem e, Signature signer){
+		for (int i=0; i<e.getDegree(); i++){
+			if (!reseal(e.getChild(i), signer)){
+				return false;
+			}
+		}
+		e.clearDirty();
+		return e.getDegree() == 0 || sealNode(e, signer);
+	}
+	/** sign node, or in merkle mode set digest of its children.
+	 *  @param n internal node
+	 *  @param signer signature for signing must be initialized for signing
+	 *  @return true if successful, false if failure
+	 */
+	private boolean sealNode(OTree_Elem n, Signature signer){
+		record(n);
+		// children are sealed before parents, so their counts and sizes are current
+		n.calcLeafCnt();
+		if (!this.merkle){
+			return updateSig(n, signer, this.sigArena);
+		}
+		OTree_Elem[] C = n.getChildren();
+		if (C != null && C.length>0){
+			// compile digest from children from left to right.
+			for (OTree_Elem c : C){
+				this.digest.update(c.getSigView());
+			}
+			n.setSig(this.digest.digest(), this.sigArena);
+		}
+		return true;
+	}
+	/** in merkle mode sign the root digest once a change is complete,
+	 *  deferred to flush if lazy.
+	 *  @param signer signature for signing must be initialized for signing
+	 */
+	private void signRoot(Signature signer){
+		if (!this.merkle || this.lazy){
+			return;
+		}
+		this.rootSig = null;
+		byte[] d = this.root.getSig();
+		if (d != null){
+			try {
+				signer.update(d);
+				this.rootSig = signer.sign();
+			} catch (SignatureException e){
+				// leave root unsigned, output will fail to verify
+			}
+		}
+	}
 	/** Update the signature for all the OTree_Elem in list.
 	  * Method designed to operate only on internal nodes.
 	  * make sure that the collection returns elements such that children will be processed before their parent
 	  * @param l collection that holds nodes to be updated (children first)
 	  * @param signer signature for signing must be initialized for signing
+	  * @param arena arena of tree to store signatures in, null for heap
 	  * @return true if successful, false if failure
 	  */
-	private static boolean updateSig(List<OTree_Elem> l, Signature signer){
+	private static boolean updateSig(List<OTree_Elem> l, Signature signer, SigArena arena){
 		// run test to make sure properly assigning update list
 		updateSigCheck(l);
 		// for node each in collection
 		for (OTree_Elem n : l){
 			// run update on this node
 			// return false if failed
-			if (!updateSig(n,signer)){
+			if (!updateSig(n, signer, arena)){
 				return false;
 			}
 		}
@@ -561,20 +1218,26 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 	  * Method designed to operate only on internal nodes.
 	  * @param n OTree_Elem (that has children)
 	  * @param signer signature for signing must be initialized for signing
+	  * @param arena arena of tree to store signature in, null for heap
 	  * @return true if successful, false if failure
 	  */
-	private static boolean updateSig(OTree_Elem n, Signature signer){
+	private static boolean updateSig(OTree_Elem n, Signature signer, SigArena arena){
 		try {
-			// get children set
-			OTree_Elem[] C = n.getChildren();
 			// if has children
-			if (C != null && C.length>0){
-				// compile signature from children from left to right. 
-				for (OTree_Elem c : C){
-					signer.update(c.getSig());
+			if (n.getDegree() > 0){
+				// compile signature from children from left to right, gathered in place
+				int size = 0;
+				for (int i=0; i<n.getDegree(); i++){
+					size += n.getChild(i).getSigLength();
 				}
+				byte[] buf = ObliviousTree.sigScratch(size);
+				int off = 0;
+				for (int i=0; i<n.getDegree(); i++){
+					off += n.getChild(i).getSig(buf, off);
+				}
+				signer.update(buf, 0, off);
 				// finish signature computation at set into this node
-				n.setSig(signer.sign());
+				n.setSig(signer.sign(), arena);
 			}
 			return true;
 		} catch (SignatureException e) {
@@ -620,6 +1283,88 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		// return true if all succeeded
 		return true;
 	}
+	public synchronized byte[] getRootSig(){
+		flushPending();
+		// a lone leaf root is signed directly, even in merkle mode
+		return (this.merkle && this.root.getDegree() > 0) ? this.rootSig : this.root.getSig();
+	}
+	public synchronized byte[] chunkProof(int i){
+		if (i < 0 || i >= this.treeNodes.size()){
+			return null;
+		}
+		flushPending();
+		// count levels from leaf to root
+		OTree_Elem leaf = this.treeNodes.get(i);
+		int levels = 0;
+		for (OTree_Elem e=leaf; e.getParent()!=null; e=e.getParent()){
+			levels++;
+		}
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendInt((this.merkle) ? 1 : 0);
+		out.appendInt(levels);
+		// siblings at each level from leaf up
+		for (OTree_Elem e=leaf; e.getParent()!=null; e=e.getParent()){
+			OTree_Elem p = e.getParent();
+			byte[][] kids = new byte[p.getDegree()][];
+			int pos = 0;
+			for (int j=0; j<kids.length; j++){
+				kids[j] = p.getChild(j).getSig();
+				if (p.getChild(j) == e){
+					pos = j;
+				}
+			}
+			ObliviousTree.appendProofLevel(out, kids, pos);
+		}
+		return Arrays.copyOf(out.data, out.index);
+	}
+	public synchronized byte[] rangeProof(int from, int to){
+		if (from < 0 || to > this.treeNodes.size() || from >= to){
+			return null;
+		}
+		flushPending();
+		OTree_Elem first = this.treeNodes.get(from);
+		OTree_Elem last = this.treeNodes.get(to-1);
+		// nodes on the boundary paths
+		IdentityHashMap<OTree_Elem, Boolean> edge = new IdentityHashMap<OTree_Elem, Boolean>();
+		for (OTree_Elem e=first; e!=null; e=e.getParent()){
+			edge.put(e, Boolean.TRUE);
+		}
+		for (OTree_Elem e=last; e!=null; e=e.getParent()){
+			edge.put(e, Boolean.TRUE);
+		}
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendInt((this.merkle) ? 1 : 0);
+		rangeProofRecurse(this.root, first, last, edge, new boolean[1], out);
+		return Arrays.copyOf(out.data, out.index);
+	}
+	/** helper for rangeProof, output node in preorder, expanded if on a
+	 *  boundary path or inside the range, else by signature alone.
+	 *  @param e node to output
+	 *  @param first leaf at start of range
+	 *  @param last leaf at end of range
+	 *  @param edge nodes on the boundary paths
+	 *  @param inside true once first has been passed until last has been
+	 *  @param out ByteOutArray to output to
+	 */
+	private static void rangeProofRecurse(OTree_Elem e, OTree_Elem first, OTree_Elem last, IdentityHashMap<OTree_Elem, Boolean> edge, boolean[] inside, ObliviousTree.ByteOutArray out){
+		byte[] sig = e.getSig();
+		out.appendInt(sig.length);
+		out.append(sig);
+		if (!inside[0] && !edge.containsKey(e)){
+			out.appendInt(-1);
+			return;
+		}
+		out.appendInt(e.getDegree());
+		if (e == first){
+			inside[0] = true;
+		}
+		for (int j=0; j<e.getDegree(); j++){
+			rangeProofRecurse(e.getChild(j), first, last, edge, inside, out);
+		}
+		if (e == last){
+			inside[0] = false;
+		}
+	}
 	/** Verify the signature for a single OTree_Elem.
 	  * Method designed to operate only on internal nodes.
 	  * @param n OTree_Elem to be verified
@@ -646,19 +1391,79 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		}
 	}
 	public synchronized boolean verifyTree(Signature verifier){
+		flushPending();
+		if (this.merkle){
+			return verifyMerkle(verifier);
+		}
 		return verifyTree(this.root, verifier);
 	}
+	public synchronized int[] auditTree(SignatureFactory verifiers, ForkJoinPool pool){
+		flushPending();
+		SignaturePool workers = new SignaturePool(verifiers);
+		int[] path = pool.invoke(new AuditTask(this.root, workers, this.merkle, new AtomicBoolean(false)));
+		if (path == null && this.merkle && this.root.getDegree() > 0){
+			// check root signature over root digest
+			try {
+				Signature verifier = workers.get();
+				verifier.update(this.root.getSig());
+				if (this.rootSig == null || !verifier.verify(this.rootSig)){
+					return new int[0];
+				}
+			} catch (SignatureException e){
+				return new int[0];
+			} catch (RuntimeException e){
+				return new int[0];
+			}
+		}
+		return path;
+	}
+	/** check every internal digest against its children and the root
+	 *  signature against the root digest.
+	 *  @param verifier signature to be used to check
+	 *  @return true if valid, false if invalid
+	 */
+	private boolean verifyMerkle(Signature verifier){
+		if (this.root.getDegree() == 0){
+			return true;
+		}
+		if (this.rootSig == null || !verifyDigest(this.root)){
+			return false;
+		}
+		try {
+			verifier.update(this.root.getSig());
+			return verifier.verify(this.rootSig);
+		} catch (SignatureException e){
+			return false;
+		}
+	}
+	/** check digests of subtree, leaves are not checked.
+	 */
+	private boolean verifyDigest(OTree_Elem e){
+		if (e.getDegree() == 0){
+			return true;
+		}
+		// children first, as they share the digest
+		for (OTree_Elem c : e.getChildren()){
+			if (!verifyDigest(c)){
+				return false;
+			}
+		}
+		for (OTree_Elem c : e.getChildren()){
+			this.digest.update(c.getSig());
+		}
+		return MessageDigest.isEqual(this.digest.digest(), e.getSig());
+	}
 	/** Function for checking 2-3 oblivious tree structure, recursive version
 	 *  @param verifier signature to be used to check
 	 *  @return true if valid, false if invalid
 	 */
-	private synchronized boolean verifyTree(OTree_Elem e, Signature verifier){
+	private static boolean verifyTree(OTree_Elem e, Signature verifier){
 		// if no children don't continue check - success
-		if (e.getDegree()>0){
+		if (e.getDegree()==0){
 			return true;
 		}
 		// else if to many children - failure
-		else if(e.getDegree()<3){
+		else if(e.getDegree()>MAX_DEGREE){
 			return false;
 		}
 		// check signature for this node
@@ -676,37 +1481,169 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		}
 		return result ; 
 	}
+	/** fork-join task auditing a subtree. Checks its root against its
+	 *  children, then audits each internal child as its own task. Leaves are
+	 *  signed over file chunks the tree does not hold, so are not checked.
+	 */
+	private static class AuditTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final OTree_Elem node;	// root of subtree being audited
+		private final SignaturePool verifiers;	// per worker Signatures
+		private final boolean merkle;	// internal nodes hold digests rather than signatures
+		private final AtomicBoolean failed;	// set once any node fails
+		
+		public AuditTask(OTree_Elem node, SignaturePool verifiers, boolean merkle, AtomicBoolean failed){
+			this.node = node;
+			this.verifiers = verifiers;
+			this.merkle = merkle;
+			this.failed = failed;
+		}
+		protected int[] compute(){
+			if (node.getDegree() == 0 || failed.get()){
+				return null;
+			}
+			boolean ok;
+			Signature verifier = verifiers.get();
+			try {
+				if (verifier == null || node.getDegree() > MAX_DEGREE){
+					ok = false;
+				} else {
+					byte[] sig = node.getSig();
+					if (merkle){
+						MessageDigest digest = MessageDigest.getInstance("SHA-256");
+						for (int i=0; i<node.getDegree(); i++){
+							digest.update(node.getChild(i).getSig());
+						}
+						ok = MessageDigest.isEqual(digest.digest(), sig);
+					} else {
+						for (int i=0; i<node.getDegree(); i++){
+							verifier.update(node.getChild(i).getSig());
+						}
+						ok = verifier.verify(sig);
+					}
+				}
+			} catch (GeneralSecurityException e){
+				ok = false;
+			} catch (RuntimeException e){
+				// node or child unsigned
+				ok = false;
+			}
+			if (!ok){
+				failed.set(true);
+				return new int[0];
+			}
+			// audit children at the same time, report leftmost bad one
+			List<AuditTask> tasks = new ArrayList<AuditTask>();
+			for (int i=0; i<node.getDegree(); i++){
+				tasks.add(new AuditTask(node.getChild(i), verifiers, merkle, failed));
+			}
+			invokeAll(tasks);
+			for (int i=0; i<tasks.size(); i++){
+				int[] path = tasks.get(i).join();
+				if (path != null){
+					// prepend position of child
+					int[] tmp = new int[path.length+1];
+					tmp[0] = i;
+					System.arraycopy(path, 0, tmp, 1, path.length);
+					return tmp;
+				}
+			}
+			return null;
+		}
+	}
 	
 
  	public synchronized byte[] signatureGenerate(){
-		// Initialize output holder; index at 0, initial size of 128 bytes
-		ObliviousTree.ByteOutArray sig = new ObliviousTree.ByteOutArray(0, 128);
+		flushPending();
+		// Initialize output holder; index at 0, exact size of output
+		int size = this.root.getOutSize();
+		if (this.merkle){
+			// lead with {sig_size}{sig} of root digest
+			if (this.rootSig == null){
+				return null;
+			}
+			size += 4 + this.rootSig.length;
+		}
+		ObliviousTree.ByteOutArray sig = new ObliviousTree.ByteOutArray(0, Math.max(size, 1));
+		if (this.merkle){
+			sig.append(ByteBuffer.allocate(4).putInt(this.rootSig.length).array());
+			sig.append(this.rootSig);
+		}
 		SequentialObliviousTree.signatureGenerateRecurse(this.root, sig);
-		// return truncated array of just signatures
-		return Arrays.copyOf(sig.data, sig.index);
+		// exact size unless a node was signed out of order, then truncate
+		return (sig.index == sig.data.length) ? sig.data : Arrays.copyOf(sig.data, sig.index);
 	} //*/
+	public synchronized boolean signatureGenerate(WritableByteChannel out) throws IOException{
+		ObliviousTree.ByteOutChannel sig = new ObliviousTree.ByteOutChannel(out);
+		flushPending();
+		if (this.merkle){
+			// lead with {sig_size}{sig} of root digest
+			if (this.rootSig == null){
+				return false;
+			}
+			sig.append(this.rootSig.length);
+			sig.append(this.rootSig);
+		}
+		SequentialObliviousTree.signatureGenerateRecurse(this.root, sig);
+		sig.flush();
+		return true;
+	}
+	public synchronized byte[] signatureGenerate(ForkJoinPool pool){
+		flushPending();
+		int head = 0;	// bytes of {sig_size}{sig} of root digest leading merkle output
+		if (this.merkle){
+			if (this.rootSig == null){
+				return null;
+			}
+			head = 4 + this.rootSig.length;
+		}
+		byte[] out = new byte[head + this.root.getOutSize()];
+		if (this.merkle){
+			ByteBuffer.wrap(out).putInt(0, this.rootSig.length);
+			System.arraycopy(this.rootSig, 0, out, 4, this.rootSig.length);
+		}
+		AtomicBoolean failed = new AtomicBoolean(false);
+		pool.invoke(new OutputTask(this.root, out, head, failed));
+		// sizes out of step with tree (node changed but not re-signed), write serially
+		return (failed.get()) ? signatureGenerate() : out;
+	}
+	public synchronized byte[] signatureDiff(long since){
+		flushPending();
+		if (this.root.getSig() == null || (this.merkle && this.rootSig == null)){
+			return null;
+		}
+		ObliviousTree.ByteOutArray out = new ObliviousTree.ByteOutArray(0, 128);
+		out.appendLong(OTree_Elem.currentStamp());
+		if (this.merkle){
+			// head is {sig_size}{sig} of root digest
+			out.appendInt(4 + this.rootSig.length);
+			out.appendInt(this.rootSig.length);
+			out.append(this.rootSig);
+		} else {
+			out.appendInt(0);
+		}
+		SequentialObliviousTree.signatureDiffRecurse(this.root, since, out);
+		return Arrays.copyOf(out.data, out.index);
+	}
 	/** recursive function to traverse tree and compile complete signature
 	 *  @param thisNode current node
 	 *  @param sig SignatureArray object holding current state
 	 */
 	private static void signatureGenerateRecurse(OTree_Elem thisNode, ObliviousTree.ByteOutArray sig){
 		ByteBuffer buf = ByteBuffer.allocate(4);	// bytebuffer for doing int to byte[] conversions
-		byte[] tmp;	// temporary array for holding byte rep of each node
+		int len = thisNode.getSigLength();	// length of signature of current node
 		
-		// get byte signature of current node
-		tmp = thisNode.getSig();
 		// fix size to accept this node
-		sig.append(tmp.length+8);
+		sig.append(len+8);
 		// write node into sig data
 		// prepend with signature size
-		buf.putInt(0, tmp.length);
+		buf.putInt(0, len);
 		// copy signature into sig data
 		System.arraycopy(buf.array(), 0, sig.data, sig.index, 4);
 		buf.clear();
 		sig.index+=4;
-		// copy signature into sig data
-		System.arraycopy(tmp, 0, sig.data, sig.index, tmp.length);
-		sig.index += tmp.length;
+		// copy signature straight into sig data
+		sig.index += thisNode.getSig(sig.data, sig.index);
 		// append with degree
 		buf.putInt(0, thisNode.getDegree());
 		System.arraycopy(buf.array(), 0, sig.data, sig.index, 4);
@@ -721,5 +1658,107 @@ public class SequentialObliviousTree extends oblivious.ObliviousTree{
 		}
 		
 	}
+	/** recursive function to traverse tree and stream complete signature
+	 *  @param thisNode current node
+	 *  @param sig ByteOutChannel output is written through
+	 *  @throws IOException if writing output fails
+	 */
+	private static void signatureGenerateRecurse(OTree_Elem thisNode, ObliviousTree.ByteOutChannel sig) throws IOException{
+		sig.append(thisNode.getSigView(), thisNode.getDegree());
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			signatureGenerateRecurse(thisNode.getChild(i), sig);
+		}
+	}
+	/** recursive function to traverse tree and compile patch since version,
+	 *  only descending into nodes signed after it
+	 *  @param thisNode current node
+	 *  @param since version patch is made since
+	 *  @param out ByteOutArray holding patch
+	 */
+	private static void signatureDiffRecurse(OTree_Elem thisNode, long since, ObliviousTree.ByteOutArray out){
+		byte[] sig = thisNode.getSig();
+		if (thisNode.getStamp() <= since){
+			// unchanged subtree, client has it already
+			out.appendInt(-sig.length);
+			out.append(sig);
+			return;
+		}
+		out.appendInt(sig.length);
+		out.append(sig);
+		out.appendInt(thisNode.getDegree());
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			signatureDiffRecurse(thisNode.getChild(i), since, out);
+		}
+	}
+	/** fork-join task writing the signature output of a subtree into its
+	 *  region of the output array. Each child's region starts where its left
+	 *  sibling's ends, known from subtree output sizes, so siblings are
+	 *  written in parallel. Subtrees of at most SERIAL_SPAN bytes are written
+	 *  by one task. Sets failed if sizes are out of step with the tree.
+	 */
+	private static class OutputTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final OTree_Elem node;	// root of subtree being written
+		private final byte[] out;		// whole output array
+		private final int off;			// offset of subtree in output
+		private final AtomicBoolean failed;	// set if output could not be placed
+		
+		public OutputTask(OTree_Elem node, byte[] out, int off, AtomicBoolean failed){
+			this.node = node;
+			this.out = out;
+			this.off = off;
+			this.failed = failed;
+		}
+		protected void compute(){
+			try {
+				if (node.getOutSize() <= SERIAL_SPAN){
+					if (writeRecurse(node, ByteBuffer.wrap(out), off) != off+node.getOutSize()){
+						failed.set(true);
+					}
+					return;
+				}
+				// write this node, then each child subtree at its own offset
+				byte[] sig = node.getSig();
+				ByteBuffer buf = ByteBuffer.wrap(out);
+				buf.putInt(off, sig.length);
+				System.arraycopy(sig, 0, out, off+4, sig.length);
+				buf.putInt(off+4+sig.length, node.getDegree());
+				int pos = off+8+sig.length;
+				OutputTask[] tasks = new OutputTask[node.getDegree()];
+				for (int i=0; i<tasks.length; i++){
+					OTree_Elem c = node.getChild(i);
+					tasks[i] = new OutputTask(c, out, pos, failed);
+					pos += c.getOutSize();
+				}
+				if (pos != off+node.getOutSize()){
+					failed.set(true);
+					return;
+				}
+				invokeAll(tasks);
+			} catch (RuntimeException e){
+				// node unsigned or region too small
+				failed.set(true);
+			}
+		}
+	}
+	/** recursive function to write signature output of subtree at given offset
+	 *  @param thisNode current node
+	 *  @param buf wrapper of output array
+	 *  @param off offset to write current node at
+	 *  @return offset after end of subtree
+	 */
+	private static int writeRecurse(OTree_Elem thisNode, ByteBuffer buf, int off){
+		int len = thisNode.getSig(buf.array(), off+4);
+		buf.putInt(off, len);
+		buf.putInt(off+4+len, thisNode.getDegree());
+		off += 8+len;
+		// call for each child (left to right)
+		for (int i=0; i<thisNode.getDegree(); i++){
+			off = writeRecurse(thisNode.getChild(i), buf, off);
+		}
+		return off;
+	}
 	
 }
\ No newline at end of file
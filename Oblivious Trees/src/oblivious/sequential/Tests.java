@@ -1,16 +1,22 @@
 package oblivious.sequential;
 
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.Vector;
 
 import application.TestApplication;
 
+import oblivious.NodeSchemes;
 import oblivious.ObliviousTree;
+import oblivious.SignatureFactory;
 import oblivious.sequential.SequentialObliviousTree;
 
 @SuppressWarnings("unused")
@@ -31,9 +37,145 @@ public class Tests {
 		System.out.println("DIGEST = "+ObliviousTree.Digest_Info());
 		//*/
 		//testVerify();
+		testLeafIndex();
+		testLazy();
+		testMerkle();
 
 	} //*/
 
+	/** leaf index kept in step with an ArrayList through random positional
+	 *  inserts, removes and sets, and not finding what it does not hold.
+	 */
+	private static void testLeafIndex(){
+		LeafIndex index = new LeafIndex();
+		ArrayList<OTree_Elem> model = new ArrayList<OTree_Elem>();
+		Random rnd = new Random(6);
+		boolean same = true;
+		OTree_Elem removed = null;
+		for (int o=0; o<5000; o++){
+			int op = rnd.nextInt(10);
+			if (op < 6 || model.isEmpty()){
+				OTree_Leaf leaf = new OTree_Leaf();
+				int i = rnd.nextInt(model.size()+1);
+				index.add(i, leaf);
+				model.add(i, leaf);
+			} else if (op < 9){
+				int i = rnd.nextInt(model.size());
+				removed = index.remove(i);
+				same &= removed == model.remove(i);
+			} else {
+				int i = rnd.nextInt(model.size());
+				OTree_Leaf leaf = new OTree_Leaf();
+				same &= index.set(i, leaf) == model.set(i, leaf);
+			}
+		}
+		same &= index.size() == model.size();
+		for (int i=0; i<model.size(); i++){
+			same &= index.get(i) == model.get(i) && index.indexOf(model.get(i)) == i;
+		}
+		System.out.println("leaf index positions = "+same);
+		// removed leaf, leaf never added and position past the end are not found
+		boolean refused = index.indexOf(removed) == -1 && index.indexOf(new OTree_Leaf()) == -1;
+		try {
+			index.get(index.size());
+			refused = false;
+		} catch (IndexOutOfBoundsException e){
+			// expected
+		}
+		System.out.println("leaf index refuses unknown = "+refused);
+	}
+
+	/** edits in lazy mode are signed on flush: output read after a burst of
+	 *  edits verifies against the edited file and not the one before it.
+	 */
+	private static void testLazy(){
+		try {
+			KeyPair keys = NodeSchemes.ed25519KeyPair();
+			SignatureFactory signers = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate()));
+			SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+			Signature signer = signers.newInstance();
+			List<byte[]> chunks = randomChunks(new Random(11), 500);
+			SequentialObliviousTree tree = new SequentialObliviousTree(join(chunks), signer);
+			byte[] before = join(chunks);
+			tree.setLazySigning(true, signers);
+			editChunks(tree, chunks, new Random(12), 40, signer);
+			// read flushes pending changes
+			byte[] out = tree.signatureGenerate();
+			System.out.println("lazy output verify = "+ObliviousTree.signatureVerify(join(chunks), out, verifiers.newInstance()));
+			System.out.println("lazy output of old file refused = "+!ObliviousTree.signatureVerify(before, out, verifiers.newInstance()));
+			// explicit flush, then off again
+			editChunks(tree, chunks, new Random(13), 40, signer);
+			boolean flushed = tree.flush(signer) && tree.verifyTree(verifiers.newInstance());
+			tree.setLazySigning(false, null);
+			System.out.println("lazy flush verify = "+(flushed && ObliviousTree.signatureVerify(join(chunks), tree.signatureGenerate(), verifiers.newInstance())));
+		} catch (GeneralSecurityException e){
+			e.printStackTrace();
+		}
+	}
+	/** merkle mode output verifies with signatureVerifyMerkle after edits, and
+	 *  is refused with a changed chunk, a changed digest or the plain verifier.
+	 */
+	private static void testMerkle(){
+		try {
+			KeyPair keys = NodeSchemes.ed25519KeyPair();
+			SignatureFactory verifiers = new SignatureFactory(NodeSchemes.ed25519Verifier(keys.getPublic()));
+			Signature signer = new SignatureFactory(NodeSchemes.ed25519Signer(keys.getPrivate())).newInstance();
+			List<byte[]> chunks = randomChunks(new Random(21), 500);
+			SequentialObliviousTree tree = new SequentialObliviousTree(join(chunks), signer);
+			tree.setMerkle(true, signer);
+			editChunks(tree, chunks, new Random(22), 40, signer);
+			byte[] file = join(chunks);
+			byte[] out = tree.signatureGenerate();
+			System.out.println("merkle verify = "+(ObliviousTree.signatureVerifyMerkle(file, out, verifiers.newInstance()) && tree.verifyTree(verifiers.newInstance())));
+			byte[] changed = file.clone();
+			changed[changed.length/2] ^= 1;
+			System.out.println("merkle changed chunk refused = "+!ObliviousTree.signatureVerifyMerkle(changed, out, verifiers.newInstance()));
+			// a byte in the middle of the output, part of some node record
+			byte[] bad = out.clone();
+			bad[bad.length/2] ^= 1;
+			System.out.println("merkle changed output refused = "+!ObliviousTree.signatureVerifyMerkle(file, bad, verifiers.newInstance()));
+			System.out.println("merkle output refused by plain verify = "+!ObliviousTree.signatureVerify(file, out, verifiers.newInstance()));
+		} catch (GeneralSecurityException e){
+			e.printStackTrace();
+		}
+	}
+	/** @return count random chunks of CHUNK_SIZE bytes
+	 */
+	private static List<byte[]> randomChunks(Random rnd, int count){
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		for (int i=0; i<count; i++){
+			byte[] c = new byte[ObliviousTree.CHUNK_SIZE];
+			rnd.nextBytes(c);
+			chunks.add(c);
+		}
+		return chunks;
+	}
+	/** @return chunks joined in order into one file
+	 */
+	private static byte[] join(List<byte[]> chunks){
+		byte[] file = new byte[chunks.size()*ObliviousTree.CHUNK_SIZE];
+		for (int i=0; i<chunks.size(); i++){
+			System.arraycopy(chunks.get(i), 0, file, i*ObliviousTree.CHUNK_SIZE, ObliviousTree.CHUNK_SIZE);
+		}
+		return file;
+	}
+	/** apply random inserts and deletes to tree and to chunks alike
+	 */
+	private static void editChunks(SequentialObliviousTree tree, List<byte[]> chunks, Random rnd, int ops, Signature signer) throws SignatureException{
+		for (int o=0; o<ops; o++){
+			if (rnd.nextInt(3) == 0){
+				int i = rnd.nextInt(chunks.size());
+				tree.deleteRange(i, i+1, signer);
+				chunks.remove(i);
+			} else {
+				int i = rnd.nextInt(chunks.size()+1);
+				byte[] c = randomChunks(rnd, 1).get(0);
+				tree.insertAll(i, Collections.singletonList(c), signer);
+				chunks.add(i, c);
+			}
+		}
+	}
+
 	/* test class for making sure verification and such works
 	private static void testVerify(){
 		// get signature objects for signing and verifying